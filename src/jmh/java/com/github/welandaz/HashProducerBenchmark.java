@@ -0,0 +1,109 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time of hashing synthetic trees end-to-end. The trees are created once per trial
+ * and are read from the page cache, so results reflect CPU cost rather than disk throughput.
+ * <p>
+ * Defaults cover walk overhead and read throughput with a standard, a fast cryptographic and a non-cryptographic
+ * hash function. Other shapes, hash functions and buffer sizes are selected with {@code -p}, e.g.
+ * {@code -p shape=DEEP,WIDE -p readStrategy=BUFFERED_8K,BUFFERED_1M}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashProducerBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES"})
+    private TreeShape shape;
+
+    @Param({"SHA256", "BLAKE3", "XXH64"})
+    private Hash hash;
+
+    @Param({"BUFFERED_64K", "MAPPED", "ADAPTIVE"})
+    private ReadStrategy readStrategy;
+
+    @Param({"1"})
+    private int parallelism;
+
+    private Path root;
+    private Path input;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("filehash-benchmark");
+        input = shape.create(root.resolve("input"));
+        output = root.resolve("output.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.delete(root);
+    }
+
+    @Benchmark
+    public Map<Path, String> toMap() {
+        return producer().toMap();
+    }
+
+    @Benchmark
+    public void toFile() {
+        producer().toFile(output);
+    }
+
+    private HashProducer producer() {
+        final HashProducer producer = HashProducer.path(input)
+                .hash(hash)
+                .mappedThreshold(readStrategy.mappedThreshold)
+                .parallelism(parallelism);
+        if (readStrategy.byteArraySize > 0) {
+            producer.byteArraySize(readStrategy.byteArraySize);
+        }
+
+        return readStrategy == ReadStrategy.ADAPTIVE ? producer.adaptiveReads(4096, 4 * 1024 * 1024) : producer;
+    }
+
+    /**
+     * Ways to read files. Only buffered reads use a buffer of a fixed size, so it is a part of the strategy
+     */
+    public enum ReadStrategy {
+        BUFFERED_8K(Long.MAX_VALUE, 8 * 1024),
+        BUFFERED_64K(Long.MAX_VALUE, 64 * 1024),
+        BUFFERED_1M(Long.MAX_VALUE, 1024 * 1024),
+        MAPPED(0, 0),
+        ADAPTIVE(Long.MAX_VALUE, 0);
+
+        private final long mappedThreshold;
+        private final int byteArraySize;
+
+        ReadStrategy(final long mappedThreshold, final int byteArraySize) {
+            this.mappedThreshold = mappedThreshold;
+            this.byteArraySize = byteArraySize;
+        }
+    }
+
+}
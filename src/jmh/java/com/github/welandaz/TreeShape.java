@@ -0,0 +1,71 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Shapes of synthetic file trees, used by benchmarks
+ */
+public enum TreeShape {
+
+    /**
+     * 10000 files of 4KB in 100 directories
+     */
+    SMALL_FILES(1, 100, 100, 4 * 1024),
+
+    /**
+     * 4 files of 16MB in a single directory
+     */
+    LARGE_FILES(1, 1, 4, 16 * 1024 * 1024),
+
+    /**
+     * 8 files of 16KB on every level of a 64 levels deep hierarchy
+     */
+    DEEP(64, 1, 8, 16 * 1024),
+
+    /**
+     * 10000 files of 1KB in 2000 sibling directories
+     */
+    WIDE(1, 2000, 5, 1024);
+
+    private final int depth;
+    private final int directories;
+    private final int files;
+    private final int fileSize;
+
+    TreeShape(final int depth, final int directories, final int files, final int fileSize) {
+        this.depth = depth;
+        this.directories = directories;
+        this.files = files;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Creates a tree of this shape with pseudo-random, but reproducible content
+     *
+     * @param root - directory, where to create the tree
+     * @return - root of the tree
+     * @throws IOException - if an I/O error occurs while writing files
+     */
+    public Path create(final Path root) throws IOException {
+        final Random random = new Random(42);
+        final byte[] bytes = new byte[fileSize];
+
+        Path level = root;
+        for (int d = 0; d < depth; d++) {
+            level = level.resolve("level" + d);
+            for (int i = 0; i < directories; i++) {
+                for (int j = 0; j < files; j++) {
+                    random.nextBytes(bytes);
+                    FileUtils.write(FileUtils.createPath(level, "dir" + i + "/file" + j), bytes);
+                }
+            }
+        }
+
+        return root;
+    }
+
+}
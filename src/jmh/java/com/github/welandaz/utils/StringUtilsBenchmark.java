@@ -0,0 +1,81 @@
+package com.github.welandaz.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures hexadecimal encoding of digests of MD5, SHA-256 and SHA-512 lengths, and encoding of whole
+ * {@code path: hash} output lines via strings versus directly into a reusable buffer.
+ * Run with {@code -prof gc} to compare allocation rates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilsBenchmark {
+
+    @Param({"16", "32", "64"})
+    private int length;
+
+    @Param({"/data/projects/filehash/src/main/java/com/github/welandaz/HashProducer.java"})
+    private String path;
+
+    private byte[] digest;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        digest = new byte[length];
+        new Random(42).nextBytes(digest);
+        buffer = ByteBuffer.allocate(path.length() * 3 + length * 2 + 3);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return StringUtils.toHexString(digest);
+    }
+
+    @Benchmark
+    public ByteBuffer putHex() {
+        buffer.clear();
+        StringUtils.putHex(buffer, digest);
+
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeLineViaStrings() {
+        buffer.clear();
+        buffer.put((path + ": " + StringUtils.toHexString(digest) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeLine() {
+        buffer.clear();
+        StringUtils.putUtf8(buffer, path);
+        buffer.put((byte) ':').put((byte) ' ');
+        StringUtils.putHex(buffer, digest);
+        buffer.put((byte) '\n');
+
+        return buffer;
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * State of an interrupted {@link HashProducer#toFile(Path)} run, which allows it to be resumed.
+ * <p>
+ * A checkpoint consists of the length of the output, which was written and synced to disk, and of the directories,
+ * which were being visited at that moment, along with hashes of their children, which were already written.
+ * A resumed walk restores these directories, and skips their completed children, so finished subtrees are
+ * neither read nor written again. The checkpoint is replaced atomically, and deleted once the walk is completed
+ */
+final class Checkpoint {
+
+    private static final int MAGIC = 0x46484350;
+
+    private final Path file;
+    private final Path input;
+    private final String header;
+    private final long offset;
+    private final Map<Path, Map<Path, byte[]>> directories;
+
+    private Checkpoint(final Path file, final Path input, final String header, final long offset,
+                       final Map<Path, Map<Path, byte[]>> directories) {
+        this.file = file;
+        this.input = input;
+        this.header = header;
+        this.offset = offset;
+        this.directories = directories;
+    }
+
+    /**
+     * Loads the checkpoint. If the file doesn't exist, was written for another input, output or algorithm,
+     * or can't be decoded, e.g. because it was damaged after it had been saved, an empty checkpoint is returned,
+     * i.e. the walk starts from the beginning. A checkpoint, which can't be decoded, is deleted
+     *
+     * @param file      - checkpoint file
+     * @param input     - root of hashed tree
+     * @param output    - output file of the walk
+     * @param algorithm - identifier of the algorithm
+     * @param scheme    - scheme of directory hashes
+     * @return - loaded checkpoint
+     * @throws IOException - if an I/O error occurs while reading or deleting the checkpoint
+     */
+    static Checkpoint load(final Path file, final Path input, final Path output, final String algorithm,
+                           final DirectoryScheme scheme) throws IOException {
+        final String header = String.join("\n", algorithm, scheme.name(),
+                input.toAbsolutePath().toString(), output.toAbsolutePath().toString());
+
+        if (Files.exists(file)) {
+            try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+                if (in.readInt() == MAGIC && in.readUTF().equals(header)) {
+                    final long offset = in.readLong();
+                    final int count = in.readInt();
+                    final Map<Path, Map<Path, byte[]>> directories = new HashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        final Path directory = resolve(input, in.readUTF());
+                        final int childCount = in.readInt();
+                        final Map<Path, byte[]> children = new HashMap<>();
+                        for (int j = 0; j < childCount; j++) {
+                            final Path child = directory.resolve(in.readUTF());
+                            final byte[] digest = new byte[in.readUnsignedByte()];
+                            in.readFully(digest);
+                            children.put(child, digest);
+                        }
+                        directories.put(directory, children);
+                    }
+
+                    return new Checkpoint(file, input, header, offset, directories);
+                }
+            } catch (final EOFException | UTFDataFormatException | RuntimeException e) {
+                // truncated or corrupted checkpoint, the walk starts from the beginning and the output is rewritten
+                Files.deleteIfExists(file);
+            }
+        }
+
+        return new Checkpoint(file, input, header, 0, Collections.emptyMap());
+    }
+
+    /**
+     * @return - length of the output, which corresponds to the checkpoint
+     */
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * @return - whether the file or directory was already hashed and written before the checkpoint
+     */
+    boolean isCompleted(final Path path) {
+        final Map<Path, byte[]> children = directories.get(path.getParent());
+
+        return children != null && children.containsKey(path);
+    }
+
+    /**
+     * @return - hashes of the children of the directory, which were written before the checkpoint, or null
+     */
+    Map<Path, byte[]> completedChildren(final Path directory) {
+        return directories.get(directory);
+    }
+
+    /**
+     * Encodes directories, which are being visited, along with hashes of their completed children
+     *
+     * @param open - children hashes by directory
+     * @return - encoded state of the walk
+     */
+    byte[] snapshot(final Map<Path, Map<Path, byte[]>> open) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(open.size());
+            for (final Map.Entry<Path, Map<Path, byte[]>> directory : new TreeMap<>(open).entrySet()) {
+                out.writeUTF(new String(Manifest.key(input, directory.getKey()), StandardCharsets.UTF_8));
+                out.writeInt(directory.getValue().size());
+                for (final Map.Entry<Path, byte[]> child : directory.getValue().entrySet()) {
+                    out.writeUTF(child.getKey().getFileName().toString());
+                    out.writeByte(child.getValue().length);
+                    out.write(child.getValue());
+                }
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the checkpoint file. Called once the output is synced up to the offset
+     *
+     * @param offset   - length of the output
+     * @param snapshot - state of the walk, encoded by {@link #snapshot(Map)}
+     * @throws IOException - if an I/O error occurs while writing the checkpoint
+     */
+    void save(final long offset, final byte[] snapshot) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(snapshot.length + header.length() + 32);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(header);
+            out.writeLong(offset);
+            out.write(snapshot);
+        }
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileUtils.ensureParent(file.toAbsolutePath());
+        try (final FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the checkpoint file, once the walk is completed
+     *
+     * @throws IOException - if the file can't be deleted
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static Path resolve(final Path input, final String key) {
+        Path path = input;
+        for (final String name : key.split("/")) {
+            if (!name.isEmpty()) {
+                path = path.resolve(name);
+            }
+        }
+
+        return path;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.github.welandaz;
+
+/**
+ * Receives differences between two snapshots of a tree. {@link Manifest#diff(Manifest, Manifest, DiffListener)}
+ * reports entries in the order of their paths, {@link HashProducer#diff(Manifest, DiffListener)} in walk order.
+ * All methods do nothing by default, so only the required ones have to be implemented
+ */
+public interface DiffListener {
+
+    /**
+     * Called for an entry, which exists only in the newer snapshot
+     *
+     * @param entry - added entry
+     */
+    default void added(final ManifestEntry entry) {
+    }
+
+    /**
+     * Called for an entry, which exists only in the older snapshot
+     *
+     * @param entry - removed entry
+     */
+    default void removed(final ManifestEntry entry) {
+    }
+
+    /**
+     * Called for an entry, which exists in both snapshots, but has a different hash or type
+     *
+     * @param before - entry from the older snapshot
+     * @param after  - entry from the newer snapshot
+     */
+    default void modified(final ManifestEntry before, final ManifestEntry after) {
+    }
+
+}
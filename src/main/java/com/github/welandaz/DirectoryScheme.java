@@ -0,0 +1,45 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Versioned schemes, which define how the hash of a directory is calculated from the hashes of its children.
+ * In both schemes children are taken in the order of their paths, and empty directories are ignored
+ */
+public enum DirectoryScheme {
+
+    /**
+     * The hash of the concatenated lowercase hexadecimal hashes of the children. This is the original format
+     */
+    HEX_V1 {
+        @Override
+        void update(final MessageDigest messageDigest, final byte[] childDigest) {
+            final byte[] hex = new byte[childDigest.length * 2];
+            StringUtils.putHex(ByteBuffer.wrap(hex), childDigest);
+            messageDigest.update(hex);
+        }
+    },
+
+    /**
+     * The hash of the concatenated raw digests of the children. It hashes half as many bytes as {@link #HEX_V1},
+     * but produces different directory hashes
+     */
+    BINARY_V2 {
+        @Override
+        void update(final MessageDigest messageDigest, final byte[] childDigest) {
+            messageDigest.update(childDigest);
+        }
+    };
+
+    /**
+     * Feeds the digest of a single child into the digest of its directory
+     *
+     * @param messageDigest - digest of the directory
+     * @param childDigest   - raw digest of the child
+     */
+    abstract void update(MessageDigest messageDigest, byte[] childDigest);
+
+}
@@ -0,0 +1,305 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Finds files with identical content, reading as few bytes as possible.
+ * <p>
+ * Files are grouped by size first, and files with a unique size are never read. Larger files of the same size
+ * are grouped further by a digest of their first and last {@link #SAMPLE_SIZE} bytes. Only files, which still
+ * share both size and sample, are hashed in full, so the reported digest is the same as the one produced by a walk.
+ * <p>
+ * Digests shorter than {@link #TRUSTED_DIGEST_LENGTH} bytes, like the ones of {@link Hash#CRC32C} or
+ * {@link Hash#XXH64}, collide too often on large trees, so files sharing such a digest are compared byte by byte
+ * before they are reported. Empty files are never reported, as they have no content to deduplicate
+ */
+final class DuplicateFinder {
+
+    static final int SAMPLE_SIZE = 4096;
+    static final int TRUSTED_DIGEST_LENGTH = 32;
+    static final int COMPARE_SIZE = 64 * 1024;
+
+    private final Supplier<MessageDigest> messageDigests;
+    private final FileHasher fileHasher;
+    private final ExecutorService executor;
+    private final PathFilter filter;
+    private final ThreadLocal<ByteBuffer> samples = ThreadLocal.withInitial(() -> ByteBuffer.allocate(SAMPLE_SIZE));
+    private final ThreadLocal<ByteBuffer[]> comparisons = ThreadLocal.withInitial(() ->
+            new ByteBuffer[]{ByteBuffer.allocate(COMPARE_SIZE), ByteBuffer.allocate(COMPARE_SIZE)});
+
+    /**
+     * @param messageDigests - supplier of digests, owned by the calling thread
+     * @param fileHasher     - hasher of the full content of files
+     * @param executor       - executor to read files in parallel, or null to read them on the calling thread
+     * @param filter         - filter of searched files
+     */
+    DuplicateFinder(final Supplier<MessageDigest> messageDigests, final FileHasher fileHasher, final ExecutorService executor,
+                    final PathFilter filter) {
+        this.messageDigests = messageDigests;
+        this.fileHasher = fileHasher;
+        this.executor = executor;
+        this.filter = filter;
+    }
+
+    /**
+     * @param input - root of the tree to search
+     * @return - groups of identical files, the ones wasting the most space first
+     * @throws IOException - if an I/O error occurs while walking the tree or reading files
+     */
+    List<DuplicateGroup> find(final Path input) throws IOException {
+        final Map<Long, List<Path>> sizes = new HashMap<>();
+        Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                return filter.acceptDirectory(dir, attrs) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && attrs.size() > 0 && filter.acceptFile(file, attrs)) {
+                    sizes.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(file);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                throw new IOException(format("Error occurred while processing [%s]", file.toString()), e);
+            }
+        });
+
+        final List<Bucket> small = new ArrayList<>();
+        final List<Bucket> large = new ArrayList<>();
+        sizes.forEach((size, paths) -> {
+            if (paths.size() > 1) {
+                (size <= 2L * SAMPLE_SIZE ? small : large).add(new Bucket(size, null, paths));
+            }
+        });
+
+        // a sample of a small file is the file itself, so such files are hashed in full right away
+        final List<Bucket> colliding = new ArrayList<>(small);
+        colliding.addAll(split(large, this::sample));
+
+        List<Bucket> identical = split(colliding, fileHasher::hash);
+        // unknown digest length is reported as zero, so such digests are never trusted
+        final int digestLength = messageDigests.get().getDigestLength();
+        if (digestLength < TRUSTED_DIGEST_LENGTH) {
+            identical = compare(identical);
+        }
+
+        final List<DuplicateGroup> groups = new ArrayList<>();
+        for (final Bucket bucket : identical) {
+            Collections.sort(bucket.paths);
+            groups.add(new DuplicateGroup(bucket.size, bucket.digest, bucket.paths));
+        }
+        groups.sort(Comparator.comparingLong(DuplicateGroup::wastedBytes).reversed()
+                .thenComparing(group -> group.paths().get(0)));
+
+        return groups;
+    }
+
+    /**
+     * Digests every file of every bucket, and splits buckets by the digest. Parts with a single file are dropped
+     */
+    private List<Bucket> split(final List<Bucket> buckets, final FileDigest function) throws IOException {
+        final List<List<Future<byte[]>>> digests = new ArrayList<>();
+        try {
+            for (final Bucket bucket : buckets) {
+                final List<Future<byte[]>> bucketDigests = new ArrayList<>();
+                for (final Path file : bucket.paths) {
+                    bucketDigests.add(submit(file, bucket.size, function));
+                }
+                digests.add(bucketDigests);
+            }
+
+            final List<Bucket> parts = new ArrayList<>();
+            for (int i = 0; i < buckets.size(); i++) {
+                final Bucket bucket = buckets.get(i);
+                final Map<ByteBuffer, List<Path>> groups = new LinkedHashMap<>();
+                for (int j = 0; j < bucket.paths.size(); j++) {
+                    groups.computeIfAbsent(ByteBuffer.wrap(digests.get(i).get(j).get()), digest -> new ArrayList<>())
+                            .add(bucket.paths.get(j));
+                }
+                groups.forEach((digest, paths) -> {
+                    if (paths.size() > 1) {
+                        parts.add(new Bucket(bucket.size, digest.array(), paths));
+                    }
+                });
+            }
+
+            return parts;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error occurred while searching duplicates", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching duplicates");
+        } finally {
+            digests.forEach(bucketDigests -> bucketDigests.forEach(digest -> digest.cancel(true)));
+        }
+    }
+
+    /**
+     * Splits every bucket into groups of files with byte by byte identical content. Every file is compared with
+     * the first file of every group found so far, so a bucket without collisions costs a single pass over each file.
+     * Groups with a single file are dropped
+     */
+    private List<Bucket> compare(final List<Bucket> buckets) throws IOException {
+        final List<Future<List<Bucket>>> comparisons = new ArrayList<>();
+        try {
+            for (final Bucket bucket : buckets) {
+                comparisons.add(executor == null
+                        ? CompletableFuture.completedFuture(compare(bucket))
+                        : executor.submit(() -> compare(bucket)));
+            }
+
+            final List<Bucket> parts = new ArrayList<>();
+            for (final Future<List<Bucket>> comparison : comparisons) {
+                parts.addAll(comparison.get());
+            }
+
+            return parts;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error occurred while searching duplicates", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching duplicates");
+        } finally {
+            comparisons.forEach(comparison -> comparison.cancel(true));
+        }
+    }
+
+    private List<Bucket> compare(final Bucket bucket) throws IOException {
+        final List<List<Path>> groups = new ArrayList<>();
+        for (final Path file : bucket.paths) {
+            List<Path> group = null;
+            for (final List<Path> candidate : groups) {
+                if (sameContent(candidate.get(0), file)) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(file);
+        }
+
+        final List<Bucket> parts = new ArrayList<>();
+        for (final List<Path> group : groups) {
+            if (group.size() > 1) {
+                parts.add(new Bucket(bucket.size, bucket.digest, group));
+            }
+        }
+
+        return parts;
+    }
+
+    private boolean sameContent(final Path first, final Path second) throws IOException {
+        final ByteBuffer[] buffers = comparisons.get();
+        try (final FileChannel firstChannel = FileChannel.open(first, StandardOpenOption.READ);
+             final FileChannel secondChannel = FileChannel.open(second, StandardOpenOption.READ)) {
+            for (long position = 0; ; position += COMPARE_SIZE) {
+                readFully(firstChannel, buffers[0], position);
+                readFully(secondChannel, buffers[1], position);
+                buffers[0].flip();
+                buffers[1].flip();
+                if (!buffers[0].equals(buffers[1])) {
+                    return false;
+                }
+                if (buffers[0].limit() < COMPARE_SIZE) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private Future<byte[]> submit(final Path file, final long size, final FileDigest function) throws IOException {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(function.digest(file, size));
+        }
+
+        return executor.submit(() -> function.digest(file, size));
+    }
+
+    /**
+     * Digests the first and the last {@link #SAMPLE_SIZE} bytes of the file
+     */
+    private byte[] sample(final Path file, final long size) throws IOException {
+        final MessageDigest messageDigest = messageDigests.get();
+        messageDigest.reset();
+
+        final ByteBuffer buffer = samples.get();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            messageDigest.update(buffer);
+
+            readFully(channel, buffer, size - SAMPLE_SIZE);
+            buffer.flip();
+            messageDigest.update(buffer);
+        }
+
+        return messageDigest.digest();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileDigest {
+
+        byte[] digest(Path file, long size) throws IOException;
+    }
+
+    private static final class Bucket {
+
+        private final long size;
+        private final byte[] digest;
+        private final List<Path> paths;
+
+        private Bucket(final long size, final byte[] digest, final List<Path> paths) {
+            this.size = size;
+            this.digest = digest;
+            this.paths = paths;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.StringUtils;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Group of files with identical content, found by {@link HashProducer#duplicates()}
+ */
+public final class DuplicateGroup {
+
+    private final long size;
+    private final byte[] digest;
+    private final List<Path> paths;
+
+    DuplicateGroup(final long size, final byte[] digest, final List<Path> paths) {
+        this.size = size;
+        this.digest = digest;
+        this.paths = Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * @return - size of every file in the group in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the raw digest. The array is not copied, so it must not be modified by the caller
+     *
+     * @return - digest of the content of every file in the group
+     */
+    @Nonnull
+    public byte[] digest() {
+        return digest;
+    }
+
+    /**
+     * @return - hexadecimal representation of the digest
+     */
+    @Nonnull
+    public String hash() {
+        return StringUtils.toHexString(digest);
+    }
+
+    /**
+     * @return - paths of the files in the group, sorted
+     */
+    @Nonnull
+    public List<Path> paths() {
+        return paths;
+    }
+
+    /**
+     * @return - number of bytes, which would be freed by keeping a single file of the group
+     */
+    public long wastedBytes() {
+        return size * (paths.size() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return hash() + " (" + size + " bytes): " + paths;
+    }
+
+}
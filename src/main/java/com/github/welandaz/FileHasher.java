@@ -0,0 +1,281 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Reads the content of files into a {@link MessageDigest} through a {@link FileChannel}.
+ * <p>
+ * Files smaller than the mapping threshold are read into a direct {@link ByteBuffer}, which is allocated
+ * once per thread and reused for all files. Larger files are mapped into memory window by window,
+ * so their content is passed to the digest without being copied to the heap, and every window is unmapped
+ * once it is digested, see {@link MappedBuffers}. With a {@link ReadSizer},
+ * the size of buffered reads is chosen per file instead, and learned from the throughput of reads.
+ * <p>
+ * In tree hash mode files larger than the chunk size are split into chunks, which are hashed independently
+ * with positional reads, and possibly in parallel. The hash of such file is the hash of the concatenated
+ * digests of its chunks, taken in order. Files, which fit into a single chunk, are hashed as a single chunk.
+ * As in RFC 6962, the content of a chunk is prefixed with {@link #LEAF}, and concatenated digests are prefixed
+ * with {@link #NODE}, so a small file, which contains digests of chunks, never gets the hash of a chunked file
+ */
+final class FileHasher {
+
+    static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+    static final byte LEAF = 0x00;
+    static final byte NODE = 0x01;
+
+    private final Supplier<MessageDigest> messageDigests;
+    private final long mappedThreshold;
+    private final long chunkSize;
+    private final Executor executor;
+    private final int helpers;
+    private final ThreadLocal<ByteBuffer> buffers;
+    private final ReadSizer sizer;
+    private final ScanMetrics metrics;
+
+    /**
+     * @param messageDigests  - supplier of digests, owned by the calling thread
+     * @param bufferSize      - size of the buffer for buffered reads
+     * @param mappedThreshold - minimal size of a file to be memory-mapped
+     * @param chunkSize       - size of chunks in tree hash mode, or {@link Long#MAX_VALUE} to hash files as a whole
+     * @param executor        - executor to hash chunks of a single file in parallel, or null to hash them sequentially
+     * @param helpers         - maximal number of tasks, which hash chunks of a single file together with the calling thread
+     * @param sizer           - adaptive size of buffered reads of whole files, or null to read them with the buffer size
+     * @param metrics         - metrics to record read and digest times to, or null
+     */
+    FileHasher(final Supplier<MessageDigest> messageDigests, final int bufferSize, final long mappedThreshold,
+               final long chunkSize, final Executor executor, final int helpers, final ReadSizer sizer,
+               final ScanMetrics metrics) {
+        this.messageDigests = messageDigests;
+        this.mappedThreshold = mappedThreshold;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.helpers = executor == null ? 0 : helpers;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+        this.sizer = sizer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Calculates digest of the file content
+     *
+     * @param file - file to read
+     * @param size - expected size of the file, used to choose between buffered, mapped and chunked reads
+     * @return - digest of the file content
+     * @throws IOException - if an I/O error occurs while reading the file
+     */
+    byte[] hash(final Path file, final long size) throws IOException {
+        final MessageDigest messageDigest = messageDigests.get();
+        messageDigest.reset();
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size > chunkSize) {
+                return hashChunks(file, channel, size, messageDigest);
+            }
+            if (chunkSize != Long.MAX_VALUE) {
+                messageDigest.update(LEAF);
+            }
+            if (size >= mappedThreshold) {
+                readMapped(channel, 0, channel.size(), messageDigest);
+            } else if (sizer != null) {
+                readAdaptive(channel, size, messageDigest);
+            } else {
+                readBuffered(channel, messageDigest);
+            }
+        }
+
+        return messageDigest.digest();
+    }
+
+    private void readBuffered(final FileChannel channel, final MessageDigest messageDigest) throws IOException {
+        final ByteBuffer buffer = buffers.get();
+        buffer.clear();
+
+        long time = metrics == null ? 0 : System.nanoTime();
+        while (channel.read(buffer) != -1) {
+            if (metrics != null) {
+                time = metrics.read(time);
+            }
+            buffer.flip();
+            messageDigest.update(buffer);
+            buffer.clear();
+            if (metrics != null) {
+                time = metrics.digested(time);
+            }
+        }
+    }
+
+    /**
+     * Reads the file in reads of the size, chosen by the sizer. The size is chosen again before every read,
+     * so a large file picks up a read size, which was learned in the meantime
+     */
+    private void readAdaptive(final FileChannel channel, final long size, final MessageDigest messageDigest) throws IOException {
+        ByteBuffer buffer = sizer.buffer(size);
+
+        long time = System.nanoTime();
+        int read;
+        while ((read = channel.read(buffer)) != -1) {
+            final long now = System.nanoTime();
+            sizer.record(buffer.limit(), read, now - time);
+            if (metrics != null) {
+                metrics.read(time);
+            }
+            buffer.flip();
+            messageDigest.update(buffer);
+            time = metrics == null ? System.nanoTime() : metrics.digested(now);
+            buffer = sizer.buffer(size);
+        }
+    }
+
+    /**
+     * Maps the range window by window. Every window is unmapped as soon as it is digested, so at most one mapping
+     * per thread is alive. With metrics, pages of a window are faulted in first, and recorded as read time
+     */
+    private void readMapped(final FileChannel channel, final long offset, final long length,
+                            final MessageDigest messageDigest) throws IOException {
+        final long end = offset + length;
+
+        long time = metrics == null ? 0 : System.nanoTime();
+        for (long position = offset; position < end; position += MAPPED_WINDOW_SIZE) {
+            final long windowSize = Math.min(MAPPED_WINDOW_SIZE, end - position);
+
+            final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            try {
+                if (metrics != null) {
+                    window.load();
+                    time = metrics.read(time);
+                }
+                messageDigest.update(window);
+                if (metrics != null) {
+                    time = metrics.digested(time);
+                }
+            } finally {
+                MappedBuffers.unmap(window);
+            }
+        }
+    }
+
+    /**
+     * Hashes chunks of the file on the calling thread and on up to {@link #helpers} tasks. Chunks are claimed
+     * one by one, so the calling thread never waits for a chunk, which wasn't started yet
+     */
+    private byte[] hashChunks(final Path file, final FileChannel channel, final long size,
+                              final MessageDigest messageDigest) throws IOException {
+        final long count = (size + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException(format("File [%s] has too many chunks of [%d] bytes", file, chunkSize));
+        }
+
+        final Chunks chunks = new Chunks(channel, size, (int) count);
+        for (int i = 0; i < Math.min(helpers, chunks.digests.length - 1); i++) {
+            executor.execute(chunks::hashAll);
+        }
+        chunks.hashAll();
+        chunks.await(file);
+
+        messageDigest.reset();
+        messageDigest.update(NODE);
+        for (final byte[] digest : chunks.digests) {
+            messageDigest.update(digest);
+        }
+
+        return messageDigest.digest();
+    }
+
+    private final class Chunks {
+
+        private final FileChannel channel;
+        private final long size;
+        private final byte[][] digests;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        private final CountDownLatch completed;
+
+        private Chunks(final FileChannel channel, final long size, final int count) {
+            this.channel = channel;
+            this.size = size;
+            this.digests = new byte[count][];
+            this.completed = new CountDownLatch(count);
+        }
+
+        private void hashAll() {
+            int index;
+            while ((index = next.getAndIncrement()) < digests.length) {
+                try {
+                    if (failure.get() == null) {
+                        digests[index] = hash(index);
+                    }
+                } catch (final IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (final RuntimeException e) {
+                    failure.compareAndSet(null, new IOException(e));
+                } finally {
+                    completed.countDown();
+                }
+            }
+        }
+
+        private byte[] hash(final int index) throws IOException {
+            final long offset = index * chunkSize;
+            final long length = Math.min(chunkSize, size - offset);
+            final MessageDigest messageDigest = messageDigests.get();
+            messageDigest.reset();
+            messageDigest.update(LEAF);
+
+            if (size >= mappedThreshold) {
+                readMapped(channel, offset, length, messageDigest);
+            } else {
+                final ByteBuffer buffer = buffers.get();
+                final long end = offset + length;
+                long position = offset;
+                long time = metrics == null ? 0 : System.nanoTime();
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    final int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    if (metrics != null) {
+                        time = metrics.read(time);
+                    }
+                    buffer.flip();
+                    messageDigest.update(buffer);
+                    position += read;
+                    if (metrics != null) {
+                        time = metrics.digested(time);
+                    }
+                }
+            }
+
+            return messageDigest.digest();
+        }
+
+        private void await(final Path file) throws IOException {
+            try {
+                completed.await();
+            } catch (final InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException(format("Interrupted while hashing [%s]", file)));
+                next.set(digests.length);
+                Thread.currentThread().interrupt();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+    }
+
+}
@@ -1,25 +1,94 @@
 package com.github.welandaz;
 
+import com.github.welandaz.digest.Blake3Digest;
+import com.github.welandaz.digest.Crc32cDigest;
+import com.github.welandaz.digest.Xxh64Digest;
+
 import javax.annotation.Nonnull;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 
+/**
+ * Predefined hash functions. Every constant keeps a prototype {@link MessageDigest} and hands out
+ * copies of it, so the same constant can be safely used by many threads and {@link HashProducer} instances.
+ * <p>
+ * Besides the cryptographic hash functions provided by the environment, pure Java implementations of
+ * {@link #BLAKE3}, which is cryptographic but much faster than SHA-2, and of non-cryptographic {@link #XXH64}
+ * and {@link #CRC32C} are available for change detection, where collision resistance is not required
+ */
 public enum Hash {
     MD5(getDigest("MD5")),
     SHA256(getDigest("SHA-256")),
-    SHA512(getDigest("SHA-512"));
+    SHA512(getDigest("SHA-512")),
+    BLAKE3(new Blake3Digest()),
+    XXH64(new Xxh64Digest()),
+    CRC32C(new Crc32cDigest());
 
-    private MessageDigest messageDigest;
+    private final MessageDigest prototype;
+    private final Supplier<MessageDigest> messageDigests;
 
-    Hash(final MessageDigest messageDigest) {
-        this.messageDigest = messageDigest;
+    Hash(final MessageDigest prototype) {
+        this.prototype = prototype;
+        this.messageDigests = perThread(prototype);
     }
 
+    /**
+     * Returns an instance of {@link MessageDigest}, which is owned by the calling thread.
+     * The instance is created once per thread and reused by all subsequent calls from that thread
+     *
+     * @return - digest, which must not be shared with other threads
+     */
     @Nonnull
     public MessageDigest messageDigest() {
-        return messageDigest;
+        return messageDigests.get();
+    }
+
+    /**
+     * Creates a new instance of {@link MessageDigest}, which is a copy of the prototype
+     *
+     * @return - new digest instance
+     */
+    @Nonnull
+    public MessageDigest newMessageDigest() {
+        return copyOf(prototype);
+    }
+
+    /**
+     * Creates a supplier, which returns a copy of the prototype, owned by the calling thread.
+     * Copies are created once per thread, so no allocation happens on subsequent calls
+     *
+     * @param prototype - digest to be copied, it is never updated itself
+     * @return - supplier of per-thread digests
+     */
+    static Supplier<MessageDigest> perThread(final MessageDigest prototype) {
+        final ThreadLocal<MessageDigest> messageDigests = ThreadLocal.withInitial(() -> copyOf(prototype));
+
+        return messageDigests::get;
+    }
+
+    /**
+     * Copies the digest via {@link MessageDigest#clone()}, and falls back to a new instance from the same provider,
+     * if the implementation is not cloneable
+     *
+     * @param messageDigest - digest to copy
+     * @return - new digest of the same algorithm
+     */
+    static MessageDigest copyOf(final MessageDigest messageDigest) {
+        try {
+            final MessageDigest copy = (MessageDigest) messageDigest.clone();
+            copy.reset();
+
+            return copy;
+        } catch (final CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(messageDigest.getAlgorithm(), messageDigest.getProvider());
+            } catch (final NoSuchAlgorithmException ex) {
+                throw new IllegalArgumentException(format("Digest [%s] can't be copied", messageDigest.getAlgorithm()), ex);
+            }
+        }
     }
 
     private static MessageDigest getDigest(final String algorithm) {
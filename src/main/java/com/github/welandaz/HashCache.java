@@ -0,0 +1,222 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of file hashes, keyed by the path of a file relative to the hashed root.
+ * <p>
+ * A cached hash is reused only if size, modification time and the full file key of the file are the same
+ * as at the moment it was hashed. Files modified less than {@link #RACY_NANOS} before the walk started
+ * are not cached, as a later change within the same tick of the file system clock would leave their
+ * attributes unchanged. Entries are stored sorted by path, each path sharing its prefix with the previous one,
+ * so the cache stays compact and is loaded with a single sequential read
+ */
+final class HashCache implements KnownDigests {
+
+    static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final int MAGIC = 0x46484332;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Path root;
+    private final String algorithm;
+    private final Map<String, Entry> loaded;
+    private final Map<String, Entry> updated = new ConcurrentHashMap<>();
+    private final long racyFrom;
+
+    private HashCache(final Path file, final Path root, final String algorithm, final Map<String, Entry> loaded) {
+        this.file = file;
+        this.root = root;
+        this.algorithm = algorithm;
+        this.loaded = loaded;
+        this.racyFrom = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - RACY_NANOS;
+    }
+
+    /**
+     * Loads cache from the file. If the file doesn't exist, was written for another algorithm or by another version,
+     * or can't be decoded, e.g. because a previous save was interrupted, an empty cache is returned
+     * and the file is overwritten on {@link #save(boolean)}
+     *
+     * @param file      - cache file
+     * @param root      - root of hashed tree, cached paths are relative to it
+     * @param algorithm - identifier of the algorithm, which produced cached hashes
+     * @return - loaded cache
+     * @throws IOException - if the cache file exists, but can't be opened
+     */
+    static HashCache load(final Path file, final Path root, final String algorithm) throws IOException {
+        final Map<String, Entry> entries = new HashMap<>();
+        if (Files.exists(file)) {
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+                if (in.readInt() == MAGIC && in.readUTF().equals(algorithm)) {
+                    final int count = in.readInt();
+                    String path = "";
+                    for (int i = 0; i < count; i++) {
+                        path = path.substring(0, in.readUnsignedShort()) + in.readUTF();
+
+                        final long size = in.readLong();
+                        final long modifiedTime = in.readLong();
+                        final String fileKey = in.readUTF();
+                        final byte[] digest = new byte[in.readUnsignedByte()];
+                        in.readFully(digest);
+
+                        entries.put(path, new Entry(size, modifiedTime, fileKey, digest));
+                    }
+                }
+            } catch (final EOFException | UTFDataFormatException | RuntimeException e) {
+                // truncated or corrupted cache, every file is hashed again and the cache is rewritten
+                entries.clear();
+            }
+        }
+
+        return new HashCache(file, root, algorithm, entries);
+    }
+
+    /**
+     * Returns cached hash of the file, if the file hasn't changed since it was hashed
+     *
+     * @param path  - path of the file
+     * @param attrs - current attributes of the file
+     * @return - cached digest or null, if the file has to be hashed
+     */
+    @Override
+    public byte[] get(final Path path, final BasicFileAttributes attrs) {
+        final String key = key(path);
+        final Entry entry = loaded.get(key);
+        if (entry != null && entry.matches(attrs)) {
+            updated.put(key, entry);
+
+            return entry.digest;
+        }
+
+        return null;
+    }
+
+    /**
+     * Stores hash of the file to be saved on {@link #save()}. Safe to be called from multiple threads
+     *
+     * @param path   - path of the file
+     * @param attrs  - attributes of the file at the moment it was hashed
+     * @param digest - digest of the file
+     */
+    @Override
+    public void put(final Path path, final BasicFileAttributes attrs, final byte[] digest) {
+        final long modifiedTime = modifiedTime(attrs);
+        if (modifiedTime < racyFrom) {
+            updated.put(key(path), new Entry(attrs.size(), modifiedTime, fullFileKey(attrs), digest));
+        }
+    }
+
+    /**
+     * Replaces the cache file with entries, which were hashed or reused during the current walk. If the walk visited
+     * the whole tree, entries of files, which no longer exist, are dropped. Otherwise, loaded entries, which weren't
+     * visited, are kept, so that a partial walk, e.g. of a single shard, doesn't evict the rest of the cache
+     *
+     * @param complete - whether the walk visited every file of the tree
+     * @throws IOException - if an I/O error occurs while writing the cache
+     */
+    void save(final boolean complete) throws IOException {
+        if (!complete) {
+            loaded.forEach(updated::putIfAbsent);
+        }
+        final List<String> paths = new ArrayList<>(updated.keySet());
+        Collections.sort(paths);
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileUtils.ensureParent(file.toAbsolutePath());
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(algorithm);
+            out.writeInt(paths.size());
+
+            String previous = "";
+            for (final String path : paths) {
+                final int shared = Math.min(commonPrefix(previous, path), 0xFFFF);
+                out.writeShort(shared);
+                out.writeUTF(path.substring(shared));
+
+                final Entry entry = updated.get(path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modifiedTime);
+                out.writeUTF(entry.fileKey);
+                out.writeByte(entry.digest.length);
+                out.write(entry.digest);
+
+                previous = path;
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String key(final Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private static int commonPrefix(final String first, final String second) {
+        final int length = Math.min(first.length(), second.length());
+        int i = 0;
+        while (i < length && first.charAt(i) == second.charAt(i)) {
+            i++;
+        }
+
+        return i;
+    }
+
+    static long modifiedTime(final BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return - hash of the file key, which is stored in a {@link Manifest}
+     */
+    static int fileKey(final BasicFileAttributes attrs) {
+        return Objects.hashCode(attrs.fileKey());
+    }
+
+    /**
+     * @return - file key, e.g. device and inode, in full, or an empty string, if the file system has no keys
+     */
+    private static String fullFileKey(final BasicFileAttributes attrs) {
+        return attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+    }
+
+    private static final class Entry {
+
+        private final long size;
+        private final long modifiedTime;
+        private final String fileKey;
+        private final byte[] digest;
+
+        private Entry(final long size, final long modifiedTime, final String fileKey, final byte[] digest) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        private boolean matches(final BasicFileAttributes attrs) {
+            return size == attrs.size() && modifiedTime == modifiedTime(attrs) && fileKey.equals(fullFileKey(attrs));
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.StringUtils;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Hash of a single file or directory, produced by {@link HashProducer}
+ */
+public final class HashEntry {
+
+    private final Path path;
+    private final byte[] digest;
+    private final BasicFileAttributes attributes;
+
+    HashEntry(final Path path, final byte[] digest, final BasicFileAttributes attributes) {
+        this.path = path;
+        this.digest = digest;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return - path of the hashed file or directory
+     */
+    @Nonnull
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Returns the raw digest. The array is not copied, so it must not be modified by the caller
+     *
+     * @return - digest of the file content, or of the hashes of directory children
+     */
+    @Nonnull
+    public byte[] digest() {
+        return digest;
+    }
+
+    /**
+     * @return - hexadecimal representation of the digest
+     */
+    @Nonnull
+    public String hash() {
+        return StringUtils.toHexString(digest);
+    }
+
+    /**
+     * @return - attributes of the file or directory, read when it was visited
+     */
+    @Nonnull
+    public BasicFileAttributes attributes() {
+        return attributes;
+    }
+
+    /**
+     * @return - true, if the entry is a directory
+     */
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    @Override
+    public String toString() {
+        return path + ": " + hash();
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator, which runs a walk on a background thread and hands its entries over through a bounded queue.
+ * The walk is started on the first access, and is blocked as long as the queue is full,
+ * so no more than the capacity of the queue is kept in memory.
+ * <p>
+ * The walk thread references the spliterator only weakly, so if a stream is abandoned without being closed,
+ * the walk notices it, while it waits for space in the queue, and stops
+ */
+final class HashEntrySpliterator extends Spliterators.AbstractSpliterator<HashEntry> {
+
+    static final long ABANDON_CHECK_MILLIS = 200;
+
+    private static final Object END = new Object();
+
+    private final Producer producer;
+
+    private Thread thread;
+    private boolean finished;
+
+    HashEntrySpliterator(final Walk walk, final int capacity) {
+        super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+        this.producer = new Producer(walk, new ArrayBlockingQueue<>(capacity), new WeakReference<>(this));
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super HashEntry> action) {
+        if (finished) {
+            return false;
+        }
+        if (thread == null) {
+            thread = new Thread(producer, "filehash-stream");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        final Object next;
+        try {
+            next = producer.queue.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for hashes", e);
+        }
+
+        if (next instanceof HashEntry) {
+            action.accept((HashEntry) next);
+
+            return true;
+        }
+
+        finished = true;
+        if (next instanceof IOException) {
+            throw new UncheckedIOException((IOException) next);
+        }
+        if (next instanceof RuntimeException) {
+            throw (RuntimeException) next;
+        }
+        if (next instanceof Error) {
+            throw (Error) next;
+        }
+        if (next instanceof Throwable) {
+            throw new IllegalStateException("Error occurred while producing hashes", (Throwable) next);
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops the walk, if it is still running
+     */
+    void close() {
+        producer.closed = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        producer.queue.clear();
+    }
+
+    /**
+     * Runs the walk on the background thread. Always ends the queue with either the end marker or the failure
+     */
+    private static final class Producer implements Runnable {
+
+        private final Walk walk;
+        private final BlockingQueue<Object> queue;
+        private final WeakReference<HashEntrySpliterator> owner;
+
+        private volatile boolean closed;
+
+        private Producer(final Walk walk, final BlockingQueue<Object> queue, final WeakReference<HashEntrySpliterator> owner) {
+            this.walk = walk;
+            this.queue = queue;
+            this.owner = owner;
+        }
+
+        @Override
+        public void run() {
+            try {
+                walk.run(this::accept);
+                put(END);
+            } catch (final InterruptedException e) {
+                fail(new IllegalStateException("Interrupted while producing hashes", e));
+            } catch (final Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void accept(final HashEntry entry) {
+            try {
+                put(entry);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while producing hashes", e);
+            }
+        }
+
+        /**
+         * Waits for space in the queue, as long as the stream is neither closed nor abandoned
+         */
+        private void put(final Object item) throws InterruptedException {
+            while (!queue.offer(item, ABANDON_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed || owner.get() == null) {
+                    throw new IllegalStateException("Stream of hashes was closed or abandoned");
+                }
+            }
+        }
+
+        private void fail(final Throwable e) {
+            if (closed || owner.get() == null) {
+                return;
+            }
+            // the only producer makes room for the failure, which is the last element of the queue
+            queue.clear();
+            queue.offer(e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Walk {
+        void run(Consumer<HashEntry> consumer) throws IOException;
+    }
+
+}
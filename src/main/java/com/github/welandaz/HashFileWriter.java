@@ -0,0 +1,235 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Writes hashes to a file as {@code path: hash} lines on a dedicated thread.
+ * <p>
+ * Entries are handed over through a bounded queue, so hashing isn't stalled by output I/O unless the queue is full.
+ * The writer thread takes entries in batches, encodes them into a reusable buffer and writes the buffer
+ * to a {@link FileChannel} whenever it is full. Markers, queued along with entries, are used to learn the length
+ * of the output, which corresponds to all entries queued before the marker
+ */
+final class HashFileWriter implements Consumer<HashEntry>, Closeable {
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final Marker END = new Marker(null);
+
+    private final Path output;
+    private final FileChannel channel;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Thread thread;
+
+    private volatile IOException failure;
+
+    private HashFileWriter(final Path output, final FileChannel channel) {
+        this.output = output;
+        this.channel = channel;
+        this.thread = new Thread(this::run, "filehash-writer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Creates the output file, or truncates it if it exists, and starts the writer thread
+     *
+     * @param output - output file
+     * @return - started writer
+     * @throws IOException - if the file can't be opened
+     */
+    static HashFileWriter open(final Path output) throws IOException {
+        return open(output, 0);
+    }
+
+    /**
+     * Opens the output file, truncates it to the specified length, and starts the writer thread,
+     * which appends entries to the remaining content
+     *
+     * @param output - output file
+     * @param offset - length of the output to keep
+     * @return - started writer
+     * @throws IOException - if the file can't be opened, or is shorter than the offset
+     */
+    static HashFileWriter open(final Path output, final long offset) throws IOException {
+        final FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < offset) {
+                throw new IOException(format("File [%s] is shorter than [%d] bytes", output, offset));
+            }
+            channel.truncate(offset);
+            channel.position(offset);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        final HashFileWriter writer = new HashFileWriter(output, channel);
+        writer.thread.start();
+
+        return writer;
+    }
+
+    /**
+     * Queues the entry to be written, blocks while the queue is full
+     *
+     * @param entry - entry to write
+     */
+    @Override
+    public void accept(final HashEntry entry) {
+        put(entry);
+    }
+
+    /**
+     * Queues a marker. Once all entries queued before it are written and synced to disk,
+     * the listener is called on the writer thread with the length of the output
+     *
+     * @param listener - listener of the marker
+     */
+    void mark(final MarkListener listener) {
+        put(new Marker(listener));
+    }
+
+    private void put(final Object item) {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        try {
+            queue.put(item);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException(format("Interrupted while writing hashes to file [%s]", output)));
+        }
+    }
+
+    /**
+     * Writes all queued entries, stops the writer thread and closes the file
+     *
+     * @throws IOException - if an I/O error occurred while writing any of the entries
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (final InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted while writing hashes to file [%s]", output));
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes entries until the end marker is taken. After a failure, including an unchecked one thrown by a listener
+     * of a marker, entries are still taken from the queue, but discarded, so that producers are never blocked
+     * by a dead writer
+     */
+    private void run() {
+        final List<Object> batch = new ArrayList<>(QUEUE_CAPACITY);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (final Object item : batch) {
+                    try {
+                        if (item == END) {
+                            if (failure == null) {
+                                flush();
+                            }
+                            return;
+                        }
+                        if (failure == null) {
+                            if (item instanceof Marker) {
+                                flush();
+                                channel.force(false);
+                                ((Marker) item).listener.marked(channel.position());
+                            } else {
+                                write((HashEntry) item);
+                            }
+                        }
+                    } catch (final IOException e) {
+                        failure = e;
+                    } catch (final Throwable e) {
+                        failure = new IOException(format("Error occurred while writing hashes to file [%s]", output), e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (final InterruptedException e) {
+            failure = new InterruptedIOException(format("Interrupted while writing hashes to file [%s]", output));
+        }
+    }
+
+    /**
+     * Encodes the line straight into the buffer. The string of a path is cached by the path itself,
+     * so no objects are allocated per entry, unless the line doesn't fit into an empty buffer
+     */
+    private void write(final HashEntry entry) throws IOException {
+        final String path = entry.path().toString();
+        final byte[] digest = entry.digest();
+        // a UTF-16 char takes at most 3 bytes in UTF-8
+        final int length = path.length() * 3 + 2 + digest.length * 2 + 1;
+
+        if (buffer.remaining() < length) {
+            flush();
+        }
+        if (buffer.remaining() < length) {
+            channel.write(ByteBuffer.wrap((entry.path() + ": " + entry.hash() + "\n").getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+
+        StringUtils.putUtf8(buffer, path);
+        buffer.put((byte) ':').put((byte) ' ');
+        StringUtils.putHex(buffer, digest);
+        buffer.put((byte) '\n');
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @FunctionalInterface
+    interface MarkListener {
+
+        /**
+         * @param offset - length of the output, which contains all entries queued before the marker
+         * @throws IOException - if an I/O error occurs, it fails the writer
+         */
+        void marked(long offset) throws IOException;
+    }
+
+    private static final class Marker {
+
+        private final MarkListener listener;
+
+        private Marker(final MarkListener listener) {
+            this.listener = listener;
+        }
+    }
+
+}
@@ -1,21 +1,36 @@
 package com.github.welandaz;
 
-import com.github.welandaz.utils.StringUtils;
-import com.github.welandaz.utils.ThrowingUtils;
-
 import javax.annotation.Nonnull;
-import java.io.*;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.lang.String.format;
 
@@ -27,14 +42,36 @@ import static java.lang.String.format;
  */
 public final class HashProducer {
 
+    private static final int STREAM_CAPACITY = 1024;
+
     private final Path input;
+    private final PathFilter filter;
 
-    private MessageDigest messageDigest;
+    private Supplier<MessageDigest> messageDigests;
     private int byteArraySize;
+    private long mappedThreshold = Long.MAX_VALUE;
+    private int minReadSize;
+    private int maxReadSize;
+    private long chunkSize = Long.MAX_VALUE;
+    private DirectoryScheme directoryScheme = DirectoryScheme.HEX_V1;
+    private int parallelism = 1;
+    private ExecutorService executorService;
+    private int ioThreads;
+    private int maxInFlightFiles;
+    private MetricsListener metricsListener;
+    private Duration progressInterval = Duration.ofSeconds(1);
+    private Duration watchDebounce = Duration.ofMillis(100);
+    private ObjectName mbeanName;
+    private Path checkpointFile;
+    private Duration checkpointInterval;
+    private Path cacheFile;
+    private int shardIndex;
+    private int shardCount = 1;
 
     private HashProducer(final Path input, final Hash hash, final int byteArraySize) {
         this.input = input;
-        this.messageDigest = hash.messageDigest();
+        this.filter = new PathFilter(input);
+        this.messageDigests = hash::messageDigest;
         this.byteArraySize = byteArraySize;
     }
 
@@ -62,62 +99,570 @@ public final class HashProducer {
      */
     @Nonnull
     public HashProducer hash(@Nonnull final Hash hash) {
-        this.messageDigest = Objects.requireNonNull(hash, "hash must not be null").messageDigest();
+        this.messageDigests = Objects.requireNonNull(hash, "hash must not be null")::messageDigest;
 
         return this;
     }
 
     /**
-     * Allows users to pass their own custom instance of MessageDigest to be used for hashing
+     * Allows users to pass their own custom instance of MessageDigest to be used for hashing.
+     * The instance serves as a prototype only, every thread hashes files with its own copy of it
      *
      * @param messageDigest - MessageDigest object to be used for hashing
      * @return - instance of {@link HashProducer}
      */
     @Nonnull
     public HashProducer hash(@Nonnull final MessageDigest messageDigest) {
-        this.messageDigest = Objects.requireNonNull(messageDigest, "messageDigest must not be null");
+        this.messageDigests = Hash.perThread(Objects.requireNonNull(messageDigest, "messageDigest must not be null"));
 
         return this;
     }
 
     /**
      * Allows users to pass their own amount of bytes to be read in one iteration.
-     * The default value is 8K, however its possible to adjust it based on the needs
+     * The default value is 8K, however its possible to adjust it based on the needs.
+     * The buffer is allocated once per hashing thread and reused for all files
      *
-     * @param byteArraySize - number of bytes to be read from file in one go
+     * @param byteArraySize - number of bytes to be read from file in one go, must be positive
      * @return - instance of {@link HashProducer}
      */
     @Nonnull
     public HashProducer byteArraySize(final int byteArraySize) {
+        if (byteArraySize < 1) {
+            throw new IllegalArgumentException(format("Byte array size must be positive, but was [%d]", byteArraySize));
+        }
         this.byteArraySize = byteArraySize;
 
         return this;
     }
 
     /**
-     * This method uses {@link HashProducer#consumeHashes(BiConsumer)} to traverse the file system,
-     * and write file/directory hashes to specified output file
+     * Enables adaptive reads, which replace the single {@link #byteArraySize(int)} for files, which are not mapped.
+     * A file, which fits into the current read size, is read in a single call into a buffer of its size, larger files
+     * are read in reads of the current size into large direct buffers. The read size starts from the byte array size,
+     * and is learned during the walk: it is doubled or halved towards the best measured throughput of reads,
+     * within the specified bounds. Buffers are reused by every hashing thread
+     *
+     * @param minReadSize - minimal size of a read in bytes, must be positive
+     * @param maxReadSize - maximal size of a read in bytes, must not be less than minReadSize
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer adaptiveReads(final int minReadSize, final int maxReadSize) {
+        if (minReadSize < 1 || maxReadSize < minReadSize) {
+            throw new IllegalArgumentException(format("Read size bounds must be positive and not empty, but were [%d, %d]",
+                    minReadSize, maxReadSize));
+        }
+        this.minReadSize = minReadSize;
+        this.maxReadSize = maxReadSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the file size, starting from which files are memory-mapped instead of being read into a buffer.
+     * Mapping avoids copying the content of large files to the heap, but is more expensive to set up for small files.
+     * By default files are never mapped
+     *
+     * @param mappedThreshold - minimal size of a file in bytes to be memory-mapped
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer mappedThreshold(final long mappedThreshold) {
+        if (mappedThreshold < 0) {
+            throw new IllegalArgumentException(format("Mapped threshold must not be negative, but was [%d]", mappedThreshold));
+        }
+        this.mappedThreshold = mappedThreshold;
+
+        return this;
+    }
+
+    /**
+     * Enables tree hash mode, in which files larger than the chunk size are split into chunks of that size.
+     * Chunks are hashed independently, in parallel if {@link #parallelism(int)} or {@link #executor(ExecutorService)}
+     * is set, and the hash of the file is the hash of the concatenated digests of its chunks, taken in order.
+     * Files, which fit into a single chunk, are hashed as a single chunk. As in RFC 6962, chunk content is prefixed
+     * with a zero byte and concatenated digests with a one byte, so hashes of small and chunked files never collide.
+     * The chunk size is a part of the algorithm, i.e. the same file produces different hashes with different
+     * chunk sizes, and hashes in tree hash mode differ from the plain ones
+     *
+     * @param chunkSize - size of a chunk in bytes
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer treeHash(final long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(format("Chunk size must be positive, but was [%d]", chunkSize));
+        }
+        this.chunkSize = chunkSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the scheme, used to calculate hashes of directories from the hashes of their children.
+     * The default is {@link DirectoryScheme#HEX_V1}, which is compatible with the previous versions
+     *
+     * @param directoryScheme - scheme for directory hashes
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer directoryScheme(@Nonnull final DirectoryScheme directoryScheme) {
+        this.directoryScheme = Objects.requireNonNull(directoryScheme, "directoryScheme must not be null");
+
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used to hash files in parallel. Directory hashes are folded bottom-up
+     * once all their children are hashed, so the result is identical to the sequential walk.
+     * The default value is 1, which hashes every file on the calling thread
+     *
+     * @param parallelism - number of threads hashing files, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer parallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(format("Parallelism must be positive, but was [%d]", parallelism));
+        }
+        this.parallelism = parallelism;
+
+        return this;
+    }
+
+    /**
+     * Allows users to pass their own executor to hash files in parallel, e.g. a shared {@link ForkJoinPool}.
+     * The executor is not shut down by {@link HashProducer}, and takes precedence over {@link #parallelism(int)}
+     *
+     * @param executorService - executor, that hashes files
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer executor(@Nonnull final ExecutorService executorService) {
+        this.executorService = Objects.requireNonNull(executorService, "executorService must not be null");
+
+        return this;
+    }
+
+    /**
+     * Moves reading of files to a dedicated pool of blocking reader threads, for file systems with a high latency
+     * of reads, e.g. NFS or FUSE mounts. The pool is usually much larger than the number of cores, so that many
+     * reads wait for the file system at the same time, while digests are updated on the threads set by
+     * {@link #parallelism(int)} or {@link #executor(ExecutorService)}. Directories are still listed on the
+     * calling thread. By default files are read on the same threads, which update digests
+     *
+     * @param ioThreads - number of reader threads, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer ioThreads(final int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException(format("Number of I/O threads must be positive, but was [%d]", ioThreads));
+        }
+        this.ioThreads = ioThreads;
+
+        return this;
+    }
+
+    /**
+     * Limits the number of files, which are being read or waiting to be passed to the consumer,
+     * when reading on {@link #ioThreads(int)}. The default value is twice the number of I/O threads
+     *
+     * @param maxInFlightFiles - maximal number of files in flight, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer maxInFlightFiles(final int maxInFlightFiles) {
+        if (maxInFlightFiles < 1) {
+            throw new IllegalArgumentException(format("Max in-flight files must be positive, but was [%d]", maxInFlightFiles));
+        }
+        this.maxInFlightFiles = maxInFlightFiles;
+
+        return this;
+    }
+
+    /**
+     * Enables collection of metrics, such as number of hashed files and bytes, time spent on reads, digests
+     * and in the consumer, and distributions of these times. The listener receives every hashed file,
+     * periodic progress callbacks and final metrics of every walk. Metrics are not collected by default
+     *
+     * @param metricsListener - listener of metrics
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer metrics(@Nonnull final MetricsListener metricsListener) {
+        this.metricsListener = Objects.requireNonNull(metricsListener, "metricsListener must not be null");
+
+        return this;
+    }
+
+    /**
+     * Sets the interval between calls of {@link MetricsListener#progress(ScanMetrics)}. The default value is 1 second
+     *
+     * @param progressInterval - interval between progress callbacks, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer progressInterval(@Nonnull final Duration progressInterval) {
+        if (Objects.requireNonNull(progressInterval, "progressInterval must not be null").isNegative()
+                || progressInterval.isZero()) {
+            throw new IllegalArgumentException(format("Progress interval must be positive, but was [%s]", progressInterval));
+        }
+        this.progressInterval = progressInterval;
+
+        return this;
+    }
+
+    /**
+     * Sets the quiet period of {@link #watch(WatchListener)}: events are applied once no new event arrives
+     * within this interval, so a burst of writes results in a single change. The default value is 100 milliseconds
+     *
+     * @param watchDebounce - quiet period before events are applied, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer watchDebounce(@Nonnull final Duration watchDebounce) {
+        if (Objects.requireNonNull(watchDebounce, "watchDebounce must not be null").isNegative()
+                || watchDebounce.isZero()) {
+            throw new IllegalArgumentException(format("Watch debounce must be positive, but was [%s]", watchDebounce));
+        }
+        this.watchDebounce = watchDebounce;
+
+        return this;
+    }
+
+    /**
+     * Enables collection of metrics, and registers them as {@link ScanMetricsMXBean} in the platform MBean server
+     * under the specified name while a walk is in progress
+     *
+     * @param objectName - name of the MBean, e.g. {@code com.github.welandaz:type=ScanMetrics,name=backup}
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer mbean(@Nonnull final String objectName) {
+        try {
+            this.mbeanName = new ObjectName(Objects.requireNonNull(objectName, "objectName must not be null"));
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalArgumentException(format("Object name [%s] is malformed", objectName), e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Enables incremental hashing with a persistent cache of file hashes. A file is read only if its size,
+     * modification time or file key differ from the cached ones, otherwise its cached hash is reused.
+     * Files modified within two seconds before the walk are never cached, as a change within the same tick
+     * of the file system clock can't be detected. Directory hashes are always recomputed from the hashes
+     * of their children. The cache is rewritten after every successful walk, entries of files outside of a shard,
+     * a filter or a pruned directory are kept. A cache, which can't be decoded, is ignored and rewritten
+     *
+     * @param cacheFile - file, where hashes are cached between walks
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer cache(@Nonnull final Path cacheFile) {
+        this.cacheFile = Objects.requireNonNull(cacheFile, "cache file must not be null");
+
+        return this;
+    }
+
+    /**
+     * Makes {@link #toFile(Path)} resumable. The output, and the state of the walk, i.e. the directories being
+     * visited along with hashes of their completed children, are periodically synced to disk. If the run is
+     * interrupted, the next run with the same input, output, hash function and checkpoint file truncates
+     * the output to the last checkpoint and resumes from it, without reading completed subtrees again.
+     * A checkpoint file, which can't be decoded, is deleted and the run starts from the beginning.
+     * The checkpoint file is deleted once the walk is completed
+     *
+     * @param checkpointFile     - file, where the state of the walk is stored
+     * @param checkpointInterval - interval between checkpoints, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer checkpoint(@Nonnull final Path checkpointFile, @Nonnull final Duration checkpointInterval) {
+        if (Objects.requireNonNull(checkpointInterval, "checkpointInterval must not be null").isNegative()
+                || checkpointInterval.isZero()) {
+            throw new IllegalArgumentException(format("Checkpoint interval must be positive, but was [%s]", checkpointInterval));
+        }
+        this.checkpointFile = Objects.requireNonNull(checkpointFile, "checkpoint file must not be null");
+        this.checkpointInterval = checkpointInterval;
+
+        return this;
+    }
+
+    /**
+     * Restricts the walk to a single shard of the input, so that a large tree can be hashed by several processes
+     * or nodes at once. Children of the input are assigned to shards by {@link String#hashCode()} of their names,
+     * which is the same on every JVM, so every child belongs to exactly one shard. The input itself is not emitted,
+     * as its hash depends on all shards. Manifests of all shards, written by {@link #toManifest(Path)},
+     * are combined by {@link #mergeShards(List, Path)}
+     *
+     * @param shardIndex - index of the shard, from 0 to shardCount - 1
+     * @param shardCount - number of shards, must be positive
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer shard(final int shardIndex, final int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException(format("Shard count must be positive, but was [%d]", shardCount));
+        }
+        if (shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException(format("Shard index must be between 0 and [%d], but was [%d]", shardCount - 1, shardIndex));
+        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+
+        return this;
+    }
+
+    /**
+     * Adds a pattern of files to be hashed. If any include pattern is set, only files matching at least one of them
+     * are hashed. Directories are always walked, unless they are excluded, so files in them can be included
+     *
+     * @param syntaxAndPattern - pattern of paths relative to the input, e.g. {@code glob:**.java} or {@code regex:.*\.java},
+     *                         as described in {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer include(@Nonnull final String syntaxAndPattern) {
+        filter.include(Objects.requireNonNull(syntaxAndPattern, "pattern must not be null"));
+
+        return this;
+    }
+
+    /**
+     * Adds a pattern of files and directories to be skipped. Excluded directories are neither listed nor read,
+     * and directory hashes are calculated from hashes of the remaining children only
+     *
+     * @param syntaxAndPattern - pattern of paths relative to the input, e.g. {@code glob:{.git,target}},
+     *                         as described in {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer exclude(@Nonnull final String syntaxAndPattern) {
+        filter.exclude(Objects.requireNonNull(syntaxAndPattern, "pattern must not be null"));
+
+        return this;
+    }
+
+    /**
+     * Restricts hashed files to the specified range of sizes
+     *
+     * @param minSize - minimal size of a file in bytes, inclusive, must not be negative
+     * @param maxSize - maximal size of a file in bytes, inclusive, must not be less than minSize
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer sizeRange(final long minSize, final long maxSize) {
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException(format("Size range must not be negative or empty, but was [%d, %d]", minSize, maxSize));
+        }
+        filter.sizeRange(minSize, maxSize);
+
+        return this;
+    }
+
+    /**
+     * Restricts hashed files to the ones modified within the specified window
+     *
+     * @param from - start of the window, inclusive
+     * @param to   - end of the window, exclusive, must be after the start
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer modifiedBetween(@Nonnull final FileTime from, @Nonnull final FileTime to) {
+        Objects.requireNonNull(from, "from must not be null");
+        Objects.requireNonNull(to, "to must not be null");
+        if (to.compareTo(from) <= 0) {
+            throw new IllegalArgumentException(format("Modification window must not be empty, but was [%s, %s]", from, to));
+        }
+        filter.modifiedBetween(from, to);
+
+        return this;
+    }
+
+    /**
+     * Skips hidden files and directories, as defined by {@link Files#isHidden(Path)}, i.e. names starting
+     * with a dot on Unix-like systems, and the hidden attribute on Windows
+     *
+     * @param skipHidden - whether hidden files and directories are skipped
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer skipHidden(final boolean skipHidden) {
+        filter.skipHidden(skipHidden);
+
+        return this;
+    }
+
+    /**
+     * Adds a custom predicate, which is tested against every file and directory below the input.
+     * A directory, which is rejected, is skipped along with its subtree
+     *
+     * @param predicate - predicate of a path and its attributes, returning true for entries to be hashed
+     * @return - instance of {@link HashProducer}
+     */
+    @Nonnull
+    public HashProducer filter(@Nonnull final BiPredicate<Path, BasicFileAttributes> predicate) {
+        filter.add(Objects.requireNonNull(predicate, "predicate must not be null"));
+
+        return this;
+    }
+
+    /**
+     * This method uses {@link HashProducer#consumeHashes(Consumer)} to traverse the file system,
+     * and write file/directory hashes to specified output file. Lines are written on a separate thread,
+     * so hashing continues while the output is being written
      *
      * @param output - output file, where result of hashing is stored
      */
     public void toFile(@Nonnull final Path output) {
         Objects.requireNonNull(output, "output file must not be null");
 
-        try (final Writer writer = Files.newBufferedWriter(output)) {
-            consumeHashes(ThrowingUtils.consume((path, hash) -> writer.write(path + ": " + hash + "\n")));
+        try {
+            if (checkpointFile == null) {
+                try (final HashFileWriter writer = HashFileWriter.open(output)) {
+                    walk(writer);
+                }
+            } else {
+                final Checkpoint checkpoint = Checkpoint.load(checkpointFile, input, output, algorithm(), directoryScheme);
+                try (final HashFileWriter writer = HashFileWriter.open(output, checkpoint.offset())) {
+                    walk(writer, WalkOptions.checkpointed(checkpoint, writer));
+                }
+                checkpoint.delete();
+            }
         } catch (final IOException e) {
             throw new UncheckedIOException(format("Error occurred while writing hashes to file [%s]", output.toString()), e);
         }
     }
 
     /**
-     * This method uses {@link HashProducer#consumeHashes(BiConsumer)} to traverse the file system,
+     * This method uses {@link HashProducer#consumeHashes(Consumer)} to traverse the file system,
+     * and writes file/directory hashes to a binary manifest, which can be read with {@link Manifest#open(Path)}.
+     * Paths in the manifest are relative to the input path and sorted, so that a single path can be looked up
+     * and two manifests can be compared without loading them into memory. Entries are sorted in memory
+     * in runs of a bounded size, which are spilled to temporary files and merged, so the heap doesn't grow
+     * with the size of the input
+     *
+     * @param output - manifest file, where result of hashing is stored
+     */
+    public void toManifest(@Nonnull final Path output) {
+        Objects.requireNonNull(output, "output file must not be null");
+
+        try (final ManifestWriter writer = new ManifestWriter(input, algorithm(), directoryScheme)) {
+            walk(writer);
+            writer.write(output);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while writing manifest to file [%s]", output.toString()), e);
+        }
+    }
+
+    /**
+     * Combines manifests of all shards of the input, written by {@link #toManifest(Path)} with {@link #shard(int, int)},
+     * into a single manifest, which is identical to the one written by a walk of the whole input. Hashes of files
+     * and directories are copied from the shards, and the hash of the input is folded from the hashes of its children,
+     * so no file is read. Shards must be produced by the same hash function and directory scheme as this instance,
+     * and every shard must be passed exactly once
+     *
+     * @param shards - manifests of all shards
+     * @param output - manifest file, where the merged result is stored
+     */
+    public void mergeShards(@Nonnull final List<Path> shards, @Nonnull final Path output) {
+        Objects.requireNonNull(shards, "shards must not be null");
+        Objects.requireNonNull(output, "output file must not be null");
+
+        final Map<Path, byte[]> children = new TreeMap<>();
+        try (final ManifestWriter writer = new ManifestWriter(input, algorithm(), directoryScheme)) {
+            for (final Path shard : shards) {
+                try (final Manifest manifest = Manifest.open(shard)) {
+                    if (!manifest.algorithm().equals(algorithm()) || manifest.directoryScheme() != directoryScheme) {
+                        throw new IllegalArgumentException(format("Shard [%s] was produced by [%s, %s], but hashes are produced by [%s, %s]",
+                                shard, manifest.algorithm(), manifest.directoryScheme(), algorithm(), directoryScheme));
+                    }
+                    for (final ManifestEntry entry : manifest) {
+                        writer.add(entry);
+                        if (entry.key().length > 0 && entry.path().indexOf('/') < 0) {
+                            children.put(input.resolve(entry.path()), entry.digest());
+                        }
+                    }
+                }
+            }
+
+            if (!children.isEmpty()) {
+                final MessageDigest messageDigest = messageDigests.get();
+                messageDigest.reset();
+                for (final byte[] childHash : children.values()) {
+                    directoryScheme.update(messageDigest, childHash);
+                }
+                writer.accept(new HashEntry(input, messageDigest.digest(), Files.readAttributes(input, BasicFileAttributes.class)));
+            }
+            writer.write(output);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while merging shards to file [%s]", output.toString()), e);
+        }
+    }
+
+    /**
+     * Compares the current state of the input with a manifest, which was written by {@link #toManifest(Path)}
+     * for the same input, hash function and directory scheme. Files, whose size, modification time and file key
+     * match the manifest, are not read, their hashes are taken from the manifest, so the amount of hashed data
+     * depends on the size of the change. Differences are reported in walk order.
+     * <p>
+     * Filters, e.g. {@link #include(String)} or {@link #exclude(String)}, apply to the live tree only, as entries
+     * of the manifest have no attributes to test. Entries of the manifest, which are filtered out, are therefore
+     * reported as removed, unless the manifest was written with the same filters
+     *
+     * @param previous - manifest of the older snapshot
+     * @param listener - receives added, removed and modified entries
+     */
+    public void diff(@Nonnull final Manifest previous, @Nonnull final DiffListener listener) {
+        diff(previous, listener, false);
+    }
+
+    /**
+     * Same as {@link #diff(Manifest, DiffListener)}, but with pruning of directories enabled, if requested.
+     * A directory, whose modification time and file key match the manifest, is not walked at all,
+     * and its hash is taken from the manifest.
+     * <p>
+     * Modification time of a directory changes only when entries are created, removed or renamed directly in it.
+     * Pruning is therefore safe only for trees, where every change also updates modification times of all
+     * ancestor directories, otherwise changes below an unchanged directory are not reported
+     *
+     * @param previous                  - manifest of the older snapshot
+     * @param listener                  - receives added, removed and modified entries
+     * @param pruneUnchangedDirectories - whether to skip directories, which metadata hasn't changed
+     */
+    public void diff(@Nonnull final Manifest previous, @Nonnull final DiffListener listener,
+                     final boolean pruneUnchangedDirectories) {
+        Objects.requireNonNull(previous, "previous manifest must not be null");
+        Objects.requireNonNull(listener, "listener must not be null");
+        if (shardCount > 1) {
+            throw new IllegalStateException("Only the whole input can be compared with a manifest, but a shard is configured");
+        }
+        if (!previous.algorithm().equals(algorithm()) || previous.directoryScheme() != directoryScheme) {
+            throw new IllegalArgumentException(format("Manifest [%s] was produced by [%s, %s], but hashes are produced by [%s, %s]",
+                    previous, previous.algorithm(), previous.directoryScheme(), algorithm(), directoryScheme));
+        }
+
+        final TreeDiff diff = new TreeDiff(input, previous, listener);
+        try {
+            walk(diff, WalkOptions.diff(previous, pruneUnchangedDirectories));
+            diff.finish();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while comparing [%s] with manifest [%s]", input, previous), e);
+        }
+    }
+
+    /**
+     * This method uses {@link HashProducer#consumeHashes(Consumer)} to traverse the file system,
      * and writes file/directory hashes to a new HashMap instance
      */
     public Map<Path, String> toMap() {
         final Map<Path, String> hashes = new HashMap<>();
         try {
-            consumeHashes(hashes::put);
+            walk(entry -> hashes.put(entry.path(), entry.hash()));
 
             return hashes;
         } catch (final IOException e) {
@@ -127,73 +672,499 @@ public final class HashProducer {
 
     /**
      * Traverses the file system, calculates hashes of files/directories and passes them to the specified consumer
+     * as soon as they are calculated. Entries are passed in walk order, i.e. a directory always follows its children,
+     * regardless of the number of threads hashing files. Only hashes of directories, which are still being visited,
+     * are kept in memory, so memory usage depends on the depth of the tree and not on the number of files
      *
-     * @param biConsumer - function, that aggregates data, based on its needs
-     * @throws IOException - if an I/O error is thrown by a visitor
+     * @param consumer - function, that aggregates data, based on its needs
      */
-    private void consumeHashes(final BiConsumer<Path, String> biConsumer) throws IOException {
-        Files.walkFileTree(input, new FileVisitor<Path>() {
-            private final Map<Path, Map<Path, String>> hashes = new HashMap<>();
+    public void consumeHashes(@Nonnull final Consumer<HashEntry> consumer) {
+        Objects.requireNonNull(consumer, "consumer must not be null");
 
-            @Override
-            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
-                hashes.put(dir, new TreeMap<>());
+        try {
+            walk(consumer);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while producing hashes from [%s]", input), e);
+        }
+    }
 
-                return FileVisitResult.CONTINUE;
+    /**
+     * Searches the input for files with identical content. Files are grouped by size first, so files with a unique
+     * size are never read. Files of the same size are compared by a digest of their head and tail, and only files,
+     * which still collide, are hashed in full with the configured hash function. If its digest is shorter than
+     * 256 bits, like the one of {@link Hash#CRC32C} or {@link Hash#XXH64}, files with equal digests are also compared
+     * byte by byte, so collisions are never reported as duplicates. Empty files are skipped. Files are read
+     * in parallel, if {@link #parallelism(int)} or {@link #executor(ExecutorService)} is set
+     *
+     * @return - groups of files with identical content, the ones wasting the most space first
+     */
+    @Nonnull
+    public List<DuplicateGroup> duplicates() {
+        try {
+            return withExecutor(executor -> new DuplicateFinder(messageDigests, newFileHasher(executor, null), executor, filter)
+                    .find(input));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while searching duplicates in [%s]", input), e);
+        }
+    }
+
+    /**
+     * Returns a lazy stream of hashes in walk order, as described in {@link #consumeHashes(Consumer)}.
+     * The walk is started by the terminal operation and runs on a separate thread, which is blocked
+     * while the stream is not consumed. The stream should be closed, if it is not consumed entirely
+     *
+     * @return - stream of file/directory hashes
+     */
+    @Nonnull
+    public Stream<HashEntry> stream() {
+        final HashEntrySpliterator spliterator = new HashEntrySpliterator(this::walk, STREAM_CAPACITY);
+
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Hashes the input directory, and keeps its hashes up to date, until the returned watcher is closed.
+     * Directories are watched with a {@link java.nio.file.WatchService}. Changed files are hashed again on the watching
+     * thread, and only hashes of their ancestor directories are folded again. Events are debounced,
+     * see {@link #watchDebounce(Duration)}, and if events are lost, the whole tree is walked again.
+     * Hashes of all entries are kept in memory
+     *
+     * @param listener - receives changes along with the new hash of the input
+     * @return - watcher, which provides the current hash of the input and stops watching once closed
+     */
+    @Nonnull
+    public HashWatcher watch(@Nonnull final WatchListener listener) {
+        Objects.requireNonNull(listener, "listener must not be null");
+        if (shardCount > 1) {
+            throw new IllegalStateException("Only the whole input can be watched, but a shard is configured");
+        }
+        if (!Files.isDirectory(input)) {
+            throw new IllegalArgumentException(format("Only a directory can be watched, but [%s] is not", input));
+        }
+
+        try {
+            final HashWatcher watcher = new HashWatcher(input, messageDigests, directoryScheme, filter, newFileHasher(null, null),
+                    this::walk, watchDebounce.toNanos(), listener);
+            watcher.start();
+
+            return watcher;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(format("Error occurred while watching [%s]", input), e);
+        }
+    }
+
+    private void walk(final Consumer<HashEntry> consumer) throws IOException {
+        walk(consumer, WalkOptions.NONE);
+    }
+
+    private void walk(final Consumer<HashEntry> consumer, final WalkOptions options) throws IOException {
+        withExecutor(executor -> {
+            walk(consumer, options, executor);
+
+            return null;
+        });
+    }
+
+    /**
+     * Runs the task with the configured executor, or with a new pool of {@link #parallelism(int)} threads,
+     * which is shut down afterwards, or without executor, if files are hashed on the calling thread
+     */
+    private <T> T withExecutor(final ExecutorTask<T> task) throws IOException {
+        if (executorService != null) {
+            return task.run(executorService);
+        }
+        if (parallelism > 1 || ioThreads > 0) {
+            final ExecutorService executor = new ForkJoinPool(parallelism);
+            try {
+                return task.run(executor);
+            } finally {
+                executor.shutdownNow();
             }
+        }
+
+        return task.run(null);
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
-                throw new IOException(format("Error occurred while processing [%s]", file.toString()), e);
+    private void walk(final Consumer<HashEntry> consumer, final WalkOptions options, final ExecutorService executor) throws IOException {
+        final HashCache cache = cacheFile == null ? null : HashCache.load(cacheFile, input, algorithm());
+        final KnownDigests known = options.previous == null
+                ? cache
+                : new ManifestDigests(options.previous, input, options.prune, cache);
+        final ScanMetrics metrics = metricsListener == null && mbeanName == null
+                ? null
+                : new ScanMetrics(metricsListener == null ? new MetricsListener() { } : metricsListener);
+        final MetricsReporter reporter = metrics == null ? null : MetricsReporter.start(metrics, progressInterval.toNanos(), mbeanName);
+        try (final ReadPipeline pipeline = ioThreads == 0 ? null : new ReadPipeline(messageDigests, byteArraySize, ioThreads, executor, metrics)) {
+            walk(new HashVisitor(consumer, options, executor, pipeline, known, metrics), cache,
+                    shardCount == 1 && filter.isEmpty() && !options.prune && options.checkpoint == null);
+        } finally {
+            if (reporter != null) {
+                reporter.close();
             }
+        }
+        if (metrics != null) {
+            metrics.completed();
+        }
+    }
 
-            @Override
-            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-                final byte[] byteArray = new byte[byteArraySize];
-                int bytesCount;
-                try (final FileInputStream fileInputStream = new FileInputStream(file.toFile())) {
-                    while ((bytesCount = fileInputStream.read(byteArray)) != -1) {
-                        messageDigest.update(byteArray, 0, bytesCount);
-                    }
-                }
+    private void walk(final HashVisitor visitor, final HashCache cache, final boolean complete) throws IOException {
+        try {
+            Files.walkFileTree(input, visitor);
+            visitor.drain(0);
+            if (cache != null) {
+                cache.save(complete);
+            }
+        } finally {
+            visitor.cancelPending();
+        }
+    }
+
+    /**
+     * Identifier of the configured hash function, cached hashes are reused only for the same identifier
+     */
+    private String algorithm() {
+        final String algorithm = messageDigests.get().getAlgorithm();
 
-                final String hash = StringUtils.toHexString(messageDigest.digest());
+        return chunkSize == Long.MAX_VALUE ? algorithm : algorithm + "/tree-v2-" + chunkSize;
+    }
+
+    /**
+     * Whether the file or directory belongs to the configured shard. Only children of the input are assigned
+     * to shards, the rest follow their ancestors. A single file input belongs to the first shard
+     */
+    private boolean isInShard(final Path path) {
+        if (shardCount == 1) {
+            return true;
+        }
+        if (path.equals(input)) {
+            return shardIndex == 0;
+        }
+
+        return !input.equals(path.getParent()) || Math.floorMod(path.getFileName().toString().hashCode(), shardCount) == shardIndex;
+    }
+
+    /**
+     * Creates a hasher of files for a single walk, so that an adaptive read size is learned anew for every walk
+     */
+    private FileHasher newFileHasher(final ExecutorService executor, final ScanMetrics metrics) {
+        final ReadSizer sizer = maxReadSize == 0 ? null : new ReadSizer(minReadSize, maxReadSize, byteArraySize);
+
+        return new FileHasher(messageDigests, byteArraySize, mappedThreshold, chunkSize,
+                executor, executor == null ? 0 : threads(executor), sizer, metrics);
+    }
+
+    private static int threads(final ExecutorService executor) {
+        return executor instanceof ForkJoinPool
+                ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Visitor, which hashes files either inline or on an executor. Submitted files are queued in walk order
+     * and passed to the consumer from the walking thread only, so directory hashes are always folded
+     * after all of their children
+     */
+    private final class HashVisitor implements FileVisitor<Path> {
+
+        private final Map<Path, OpenDirectory> hashes = new HashMap<>();
+        private final Deque<PendingEntry> pending = new ArrayDeque<>();
+
+        private final Consumer<HashEntry> consumer;
+        private final ExecutorService executor;
+        private final ReadPipeline pipeline;
+        private final int pendingLimit;
+        private final KnownDigests known;
+        private final ScanMetrics metrics;
+        private final Checkpoint checkpoint;
+        private final HashFileWriter writer;
+        private final FileHasher fileHasher;
+        private final Supplier<MessageDigest> messageDigests = HashProducer.this.messageDigests;
+        private final DirectoryScheme directoryScheme = HashProducer.this.directoryScheme;
+
+        private long nextCheckpoint;
+
+        private HashVisitor(final Consumer<HashEntry> consumer, final WalkOptions options, final ExecutorService executor,
+                            final ReadPipeline pipeline, final KnownDigests known, final ScanMetrics metrics) {
+            this.consumer = consumer;
+            this.checkpoint = options.checkpoint;
+            this.writer = options.writer;
+            if (checkpoint != null) {
+                this.nextCheckpoint = System.nanoTime() + checkpointInterval.toNanos();
+            }
+            this.executor = executor;
+            this.pipeline = pipeline;
+            this.known = known;
+            this.metrics = metrics;
+            if (pipeline != null) {
+                this.pendingLimit = (maxInFlightFiles == 0 ? ioThreads * 2 : maxInFlightFiles) - 1;
+            } else {
+                this.pendingLimit = executor == null ? 0 : threads(executor) * 16;
+            }
+            this.fileHasher = newFileHasher(executor, metrics);
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+            if (!dir.equals(input) && !isInShard(dir) || !filter.acceptDirectory(dir, attrs)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (checkpoint != null && checkpoint.isCompleted(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            final byte[] pruned = known == null ? null : known.getDirectory(dir, attrs);
+            if (pruned != null) {
+                pending.add(new PendingEntry(dir, attrs, CompletableFuture.completedFuture(pruned)));
+                drain(pendingLimit);
 
-                updateParentHash(file, hash);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            final OpenDirectory directory = new OpenDirectory(attrs);
+            final Map<Path, byte[]> completed = checkpoint == null ? null : checkpoint.completedChildren(dir);
+            if (completed != null) {
+                directory.children.putAll(completed);
+            }
+            hashes.put(dir, directory);
 
-                biConsumer.accept(file, hash);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+            throw new IOException(format("Error occurred while processing [%s]", file.toString()), e);
+        }
 
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+            if (!isInShard(file) || !filter.acceptFile(file, attrs) || checkpoint != null && checkpoint.isCompleted(file)) {
                 return FileVisitResult.CONTINUE;
             }
+            final byte[] cached = known == null ? null : known.get(file, attrs);
+            if (cached != null) {
+                if (metrics != null) {
+                    metrics.fileReused();
+                }
+                pending.add(new PendingEntry(file, attrs, CompletableFuture.completedFuture(cached)));
+                drain(pendingLimit);
+            } else if (executor == null) {
+                emit(file, attrs, hashFile(file, attrs));
+            } else if (pipeline != null) {
+                pending.add(new PendingEntry(file, attrs, readFile(file, attrs)));
+                drain(pendingLimit);
+            } else {
+                pending.add(new PendingEntry(file, attrs, executor.submit(() -> hashFile(file, attrs))));
+                drain(pendingLimit);
+            }
+
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+            if (executor == null) {
+                emitDirectory(dir);
+            } else {
+                pending.add(new PendingEntry(dir, null, null));
+                drain(pendingLimit);
+            }
 
-            @Override
-            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
-                final Map<Path, String> directoryHashes = hashes.get(dir);
-                if (!directoryHashes.isEmpty()) {
-                    final String concatenatedHashes = String.join("", directoryHashes.values());
+            return FileVisitResult.CONTINUE;
+        }
 
-                    final String hash = StringUtils.toHexString(messageDigest.digest(concatenatedHashes.getBytes()));
+        private byte[] hashFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+            final long start = metrics == null ? 0 : System.nanoTime();
+            final byte[] digest = fileHasher.hash(file, attrs.size());
+            if (metrics != null) {
+                metrics.fileHashed(file, attrs.size(), System.nanoTime() - start);
+            }
+            if (known != null) {
+                known.put(file, attrs, digest);
+            }
 
-                    hashes.remove(dir);
+            return digest;
+        }
 
-                    biConsumer.accept(dir, hash);
+        /**
+         * Reads the file on the pipeline. Files, which are mapped or split into chunks, are hashed as a whole
+         * on a reader thread
+         */
+        private Future<byte[]> readFile(final Path file, final BasicFileAttributes attrs) {
+            if (attrs.size() > chunkSize || attrs.size() >= mappedThreshold) {
+                return pipeline.submit(() -> hashFile(file, attrs));
+            }
 
-                    updateParentHash(dir, hash);
+            return pipeline.hash(file, digest -> {
+                if (known != null) {
+                    known.put(file, attrs, digest);
                 }
+            });
+        }
 
-                return FileVisitResult.CONTINUE;
+        /**
+         * Emits queued entries in walk order, until no more than {@code limit} entries are left.
+         * Entries, which are already hashed, are emitted eagerly
+         */
+        private void drain(final int limit) throws IOException {
+            try {
+                while (!pending.isEmpty() && (pending.size() > limit || pending.peek().isDone())) {
+                    final PendingEntry entry = pending.poll();
+                    if (entry.hash == null) {
+                        emitDirectory(entry.path);
+                    } else {
+                        emit(entry.path, entry.attrs, entry.hash.get());
+                    }
+                }
+                if (metrics != null) {
+                    metrics.pending(pending.size());
+                }
+            } catch (final ExecutionException e) {
+                cancelPending();
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(format("Error occurred while hashing files from [%s]", input), e.getCause());
+            } catch (final InterruptedException e) {
+                cancelPending();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(format("Interrupted while hashing files from [%s]", input));
             }
+        }
 
-            private void updateParentHash(final Path file, final String hash) {
-                final Path parent = file.getParent();
+        private void cancelPending() {
+            pending.forEach(entry -> {
+                if (entry.hash != null) {
+                    entry.hash.cancel(true);
+                }
+            });
+            pending.clear();
+        }
+
+        private void emit(final Path path, final BasicFileAttributes attrs, final byte[] hash) throws IOException {
+            updateParentHash(path, hash);
 
-                hashes.computeIfPresent(parent, (path, parentHashes) -> {
-                    parentHashes.put(file, hash);
+            accept(new HashEntry(path, hash, attrs));
+
+            checkpoint();
+        }
 
-                    return parentHashes;
-                });
+        private void emitDirectory(final Path dir) throws IOException {
+            final OpenDirectory directory = hashes.remove(dir);
+            // the hash of a sharded input depends on other shards, it is folded by mergeShards
+            if (!directory.children.isEmpty() && (shardCount == 1 || !dir.equals(input))) {
+                final long start = metrics == null ? 0 : System.nanoTime();
+                final MessageDigest messageDigest = messageDigests.get();
+                messageDigest.reset();
+                for (final byte[] childHash : directory.children.values()) {
+                    directoryScheme.update(messageDigest, childHash);
+                }
+
+                final byte[] hash = messageDigest.digest();
+                if (metrics != null) {
+                    metrics.directoryHashed(System.nanoTime() - start);
+                }
+
+                accept(new HashEntry(dir, hash, directory.attrs));
+
+                updateParentHash(dir, hash);
+
+                checkpoint();
             }
-        });
+        }
+
+        /**
+         * Saves the state of the walk, if the checkpoint interval has elapsed. The state is encoded right away,
+         * but saved by the writer, once all entries emitted so far are synced to disk
+         */
+        private void checkpoint() throws IOException {
+            if (checkpoint != null && System.nanoTime() - nextCheckpoint >= 0) {
+                nextCheckpoint = System.nanoTime() + checkpointInterval.toNanos();
+
+                final Map<Path, Map<Path, byte[]>> open = new HashMap<>();
+                hashes.forEach((dir, directory) -> open.put(dir, directory.children));
+
+                final byte[] snapshot = checkpoint.snapshot(open);
+                writer.mark(offset -> checkpoint.save(offset, snapshot));
+            }
+        }
+
+        private void accept(final HashEntry entry) {
+            if (metrics == null) {
+                consumer.accept(entry);
+            } else {
+                final long start = System.nanoTime();
+                consumer.accept(entry);
+                metrics.sink(start);
+            }
+        }
+
+        private void updateParentHash(final Path file, final byte[] hash) {
+            final Path parent = file.getParent();
+
+            final OpenDirectory directory = parent == null ? null : hashes.get(parent);
+            if (directory != null) {
+                directory.children.put(file, hash);
+            }
+        }
+    }
+
+    /**
+     * Optional features of a single walk
+     */
+    private static final class WalkOptions {
+
+        private static final WalkOptions NONE = new WalkOptions(null, false, null, null);
+
+        private final Manifest previous;
+        private final boolean prune;
+        private final Checkpoint checkpoint;
+        private final HashFileWriter writer;
+
+        private WalkOptions(final Manifest previous, final boolean prune, final Checkpoint checkpoint, final HashFileWriter writer) {
+            this.previous = previous;
+            this.prune = prune;
+            this.checkpoint = checkpoint;
+            this.writer = writer;
+        }
+
+        private static WalkOptions diff(final Manifest previous, final boolean prune) {
+            return new WalkOptions(previous, prune, null, null);
+        }
+
+        private static WalkOptions checkpointed(final Checkpoint checkpoint, final HashFileWriter writer) {
+            return new WalkOptions(null, false, checkpoint, writer);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ExecutorTask<T> {
+
+        T run(ExecutorService executor) throws IOException;
+    }
+
+    private static final class OpenDirectory {
+
+        private final BasicFileAttributes attrs;
+        private final Map<Path, byte[]> children = new TreeMap<>();
+
+        private OpenDirectory(final BasicFileAttributes attrs) {
+            this.attrs = attrs;
+        }
+    }
+
+    private static final class PendingEntry {
+
+        private final Path path;
+        private final BasicFileAttributes attrs;
+        private final Future<byte[]> hash;
+
+        private PendingEntry(final Path path, final BasicFileAttributes attrs, final Future<byte[]> hash) {
+            this.path = path;
+            this.attrs = attrs;
+            this.hash = hash;
+        }
+
+        private boolean isDone() {
+            return hash == null || hash.isDone();
+        }
     }
 
 }
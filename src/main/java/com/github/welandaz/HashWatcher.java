@@ -0,0 +1,492 @@
+package com.github.welandaz;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Keeps hashes of a tree up to date, driven by {@link WatchService} events, see {@link HashProducer#watch(WatchListener)}.
+ * <p>
+ * After the initial walk, hashes of all entries, and hashes of the children of every directory, are kept in memory.
+ * Events are coalesced by path and applied once no new event arrives within the debounce interval, or at the latest
+ * after {@link #MAX_DEBOUNCES} intervals of a continuous burst. Changed files are hashed again, and only directories
+ * on the way from a changed entry to the input are folded again. If events were lost, the whole tree is walked again
+ */
+public final class HashWatcher implements Closeable {
+
+    static final int MAX_DEBOUNCES = 10;
+
+    private final Path input;
+    private final Supplier<MessageDigest> messageDigests;
+    private final DirectoryScheme directoryScheme;
+    private final PathFilter filter;
+    private final FileHasher fileHasher;
+    private final HashEntrySpliterator.Walk walk;
+    private final long debounceNanos;
+    private final WatchListener listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final NavigableMap<Path, WatchKey> watched = new TreeMap<>(HashWatcher::compareInTreeOrder);
+    private final Map<Path, HashEntry> entries = new HashMap<>();
+    private final Map<Path, Map<Path, byte[]>> children = new HashMap<>();
+
+    private volatile HashEntry root;
+    private volatile boolean closed;
+
+    HashWatcher(final Path input, final Supplier<MessageDigest> messageDigests, final DirectoryScheme directoryScheme,
+                final PathFilter filter, final FileHasher fileHasher, final HashEntrySpliterator.Walk walk,
+                final long debounceNanos, final WatchListener listener) throws IOException {
+        this.input = input;
+        this.messageDigests = messageDigests;
+        this.directoryScheme = directoryScheme;
+        this.filter = filter;
+        this.fileHasher = fileHasher;
+        this.walk = walk;
+        this.debounceNanos = debounceNanos;
+        this.listener = listener;
+        this.watchService = input.getFileSystem().newWatchService();
+        this.thread = new Thread(this::run, "filehash-watch");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Hashes the whole tree and starts watching it
+     */
+    void start() throws IOException {
+        try {
+            entries.putAll(scan());
+        } catch (final IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        root = entries.get(input);
+        thread.start();
+    }
+
+    /**
+     * @return - current hash of the input, or null if it has no files
+     */
+    @Nullable
+    public HashEntry root() {
+        return root;
+    }
+
+    /**
+     * Stops watching. Waits for the batch of events, which is being applied, if any
+     *
+     * @throws IOException - if the watch service can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted while closing watcher of [%s]", input));
+        }
+    }
+
+    private void run() {
+        boolean rescan = false;
+        int failures = 0;
+        while (!closed) {
+            try {
+                final Set<Path> paths = new TreeSet<>();
+                if (!rescan) {
+                    rescan = !collect(watchService.take(), paths);
+
+                    final long deadline = System.nanoTime() + debounceNanos * MAX_DEBOUNCES;
+                    WatchKey key;
+                    while (System.nanoTime() - deadline < 0 && (key = watchService.poll(debounceNanos, TimeUnit.NANOSECONDS)) != null) {
+                        rescan |= !collect(key, paths);
+                    }
+                } else if (failures > 1) {
+                    // the tree is walked again right away after a failure, but after a pause or the next event, while walks keep failing
+                    watchService.poll(debounceNanos * MAX_DEBOUNCES, TimeUnit.NANOSECONDS);
+                }
+
+                final TreeChange change = rescan ? rescan() : apply(paths);
+                rescan = false;
+                failures = 0;
+                if (change != null) {
+                    callListener(() -> listener.changed(change));
+                }
+            } catch (final ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (final IOException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                // hashes in memory may be partially updated, so only a walk of the whole tree restores them
+                rescan = true;
+                failures++;
+                final IOException failure = e instanceof IOException
+                        ? (IOException) e
+                        : new IOException(format("Error occurred while applying events of [%s]", input), e);
+                callListener(() -> listener.failed(failure));
+            }
+        }
+    }
+
+    /**
+     * Calls the listener. An exception thrown by it is passed to the uncaught exception handler of the thread,
+     * so that a failing listener doesn't stop the watcher
+     */
+    private static void callListener(final Runnable call) {
+        try {
+            call.run();
+        } catch (final RuntimeException e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Adds paths of the events of the key to the batch
+     *
+     * @return - false, if events were lost
+     */
+    private boolean collect(final WatchKey key, final Set<Path> paths) {
+        final Path dir = keys.get(key);
+        boolean complete = true;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                complete = false;
+            } else if (dir != null) {
+                paths.add(dir.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            if (dir != null) {
+                watched.remove(dir, key);
+            }
+        }
+
+        return complete;
+    }
+
+    /**
+     * Registers all directories of the tree, and hashes it with the walk of the producer
+     *
+     * @return - hashes of all entries
+     */
+    private Map<Path, HashEntry> scan() throws IOException {
+        keys.keySet().forEach(WatchKey::cancel);
+        keys.clear();
+        watched.clear();
+        children.clear();
+
+        // directories are registered first, so that nothing, which changes during the walk, is missed
+        Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                if (!filter.acceptDirectory(dir, attrs)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                throw new IOException(format("Error occurred while processing [%s]", file.toString()), e);
+            }
+        });
+
+        final Map<Path, HashEntry> scanned = new HashMap<>();
+        walk.run(entry -> {
+            scanned.put(entry.path(), entry);
+            final Map<Path, byte[]> siblings = entry.path().equals(input) ? null : children.get(entry.path().getParent());
+            if (siblings != null) {
+                siblings.put(entry.path(), entry.digest());
+            }
+        });
+
+        return scanned;
+    }
+
+    private TreeChange rescan() throws IOException {
+        final Map<Path, HashEntry> previous = new HashMap<>(entries);
+        entries.clear();
+        entries.putAll(scan());
+        root = entries.get(input);
+
+        final Map<Path, HashEntry> changed = new TreeMap<>();
+        entries.forEach((path, entry) -> {
+            final HashEntry before = previous.remove(path);
+            if (before == null || !Arrays.equals(before.digest(), entry.digest())) {
+                changed.put(path, entry);
+            }
+        });
+
+        return new TreeChange(new ArrayList<>(changed.values()), new ArrayList<>(new TreeSet<>(previous.keySet())), root, true);
+    }
+
+    private TreeChange apply(final Set<Path> paths) throws IOException {
+        final Batch batch = new Batch();
+        for (final Path path : paths) {
+            update(path, batch);
+        }
+        fold(batch);
+        root = entries.get(input);
+
+        if (batch.changed.isEmpty() && batch.removed.isEmpty()) {
+            return null;
+        }
+
+        return new TreeChange(new ArrayList<>(batch.changed.values()), new ArrayList<>(batch.removed), root, false);
+    }
+
+    /**
+     * Brings the entry of a single path, which was reported by an event, in line with the file system
+     */
+    private void update(final Path path, final Batch batch) throws IOException {
+        if (!children.containsKey(path.getParent())) {
+            // the parent was removed or excluded, its entries are already gone
+            return;
+        }
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final NoSuchFileException e) {
+            attrs = null;
+        }
+
+        if (attrs == null || (attrs.isDirectory() ? !filter.acceptDirectory(path, attrs) : !filter.acceptFile(path, attrs))) {
+            remove(path, batch);
+        } else if (attrs.isDirectory()) {
+            if (!children.containsKey(path)) {
+                remove(path, batch);
+                addDirectory(path, batch);
+            }
+        } else {
+            if (children.containsKey(path)) {
+                remove(path, batch);
+            }
+            hashFile(path, attrs, batch);
+        }
+    }
+
+    private void hashFile(final Path file, final BasicFileAttributes attrs, final Batch batch) throws IOException {
+        final byte[] digest;
+        try {
+            digest = fileHasher.hash(file, attrs.size());
+        } catch (final NoSuchFileException e) {
+            // removed in the meantime, the event of the removal follows
+            remove(file, batch);
+            return;
+        }
+
+        put(new HashEntry(file, digest, attrs), batch);
+    }
+
+    /**
+     * Registers and hashes a directory, which appeared in the tree, along with its subtree
+     */
+    private void addDirectory(final Path dir, final Batch batch) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path subdir, final BasicFileAttributes attrs) throws IOException {
+                if (!subdir.equals(dir) && !filter.acceptDirectory(subdir, attrs)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(subdir);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (filter.acceptFile(file, attrs)) {
+                    hashFile(file, attrs, batch);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw new IOException(format("Error occurred while processing [%s]", file.toString()), e);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path subdir, final IOException e) {
+                batch.dirty.add(subdir);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(final Path dir) throws IOException {
+        final WatchKey key = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(key, dir);
+        watched.put(dir, key);
+        children.put(dir, new TreeMap<>());
+    }
+
+    private void put(final HashEntry entry, final Batch batch) {
+        final Path path = entry.path();
+        final HashEntry previous = entries.put(path, entry);
+        if (previous == null || !Arrays.equals(previous.digest(), entry.digest())) {
+            children.get(path.getParent()).put(path, entry.digest());
+            batch.changed.put(path, entry);
+            batch.removed.remove(path);
+            batch.dirty.add(path.getParent());
+        }
+    }
+
+    /**
+     * Removes the entry along with its subtree, if it is a directory
+     */
+    private void remove(final Path path, final Batch batch) {
+        if (watched.containsKey(path)) {
+            // the subtree of the directory directly follows it in tree order
+            final Iterator<Map.Entry<Path, WatchKey>> iterator = watched.tailMap(path, true).entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Path, WatchKey> directory = iterator.next();
+                if (!directory.getKey().startsWith(path)) {
+                    break;
+                }
+                directory.getValue().cancel();
+                keys.remove(directory.getValue());
+                for (final Path child : children.remove(directory.getKey()).keySet()) {
+                    if (entries.remove(child) != null) {
+                        removed(child, batch);
+                    }
+                }
+                if (entries.remove(directory.getKey()) != null) {
+                    removed(directory.getKey(), batch);
+                }
+                iterator.remove();
+            }
+        } else if (entries.remove(path) != null) {
+            removed(path, batch);
+        }
+
+        final Map<Path, byte[]> siblings = children.get(path.getParent());
+        if (siblings != null && siblings.remove(path) != null) {
+            batch.dirty.add(path.getParent());
+        }
+    }
+
+    private static void removed(final Path path, final Batch batch) {
+        batch.changed.remove(path);
+        batch.removed.add(path);
+    }
+
+    /**
+     * Folds hashes of dirty directories, the deepest first, so that every directory is folded once
+     * and after all of its changed subdirectories
+     */
+    private void fold(final Batch batch) throws IOException {
+        Path dir;
+        while ((dir = batch.dirty.pollFirst()) != null) {
+            final Map<Path, byte[]> nested = children.get(dir);
+            if (nested == null) {
+                continue;
+            }
+
+            final Map<Path, byte[]> siblings = dir.equals(input) ? null : children.get(dir.getParent());
+            final HashEntry previous = entries.get(dir);
+            if (nested.isEmpty()) {
+                // empty directories are ignored, as in a walk
+                if (previous != null) {
+                    entries.remove(dir);
+                    removed(dir, batch);
+                    if (siblings != null && siblings.remove(dir) != null) {
+                        batch.dirty.add(dir.getParent());
+                    }
+                }
+                continue;
+            }
+
+            final MessageDigest messageDigest = messageDigests.get();
+            messageDigest.reset();
+            for (final byte[] childHash : nested.values()) {
+                directoryScheme.update(messageDigest, childHash);
+            }
+            final byte[] digest = messageDigest.digest();
+
+            if (previous == null || !Arrays.equals(previous.digest(), digest)) {
+                final HashEntry entry = new HashEntry(dir, digest,
+                        Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+                entries.put(dir, entry);
+                batch.changed.put(dir, entry);
+                batch.removed.remove(dir);
+                if (siblings != null) {
+                    siblings.put(dir, digest);
+                    batch.dirty.add(dir.getParent());
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares paths name by name, so that every directory is directly followed by its subtree
+     */
+    private static int compareInTreeOrder(final Path first, final Path second) {
+        final int count = Math.min(first.getNameCount(), second.getNameCount());
+        for (int i = 0; i < count; i++) {
+            final int result = first.getName(i).compareTo(second.getName(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return Integer.compare(first.getNameCount(), second.getNameCount());
+    }
+
+    /**
+     * Changes, collected while a batch of events is applied
+     */
+    private static final class Batch {
+
+        private final Map<Path, HashEntry> changed = new TreeMap<>();
+        private final NavigableSet<Path> removed = new TreeSet<>();
+        private final NavigableSet<Path> dirty = new TreeSet<>(
+                Comparator.comparingInt(Path::getNameCount).reversed().thenComparing(Comparator.naturalOrder()));
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.github.welandaz;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Source of hashes, which were computed before the current walk and can be reused,
+ * if the entry hasn't changed since then
+ */
+interface KnownDigests {
+
+    /**
+     * Returns known hash of the file, if the file hasn't changed since it was hashed
+     *
+     * @param path  - path of the file
+     * @param attrs - current attributes of the file
+     * @return - known digest or null, if the file has to be hashed
+     */
+    byte[] get(Path path, BasicFileAttributes attrs);
+
+    /**
+     * Returns known hash of the directory, if none of its descendants has to be visited
+     *
+     * @param path  - path of the directory
+     * @param attrs - current attributes of the directory
+     * @return - known digest or null, if the directory has to be walked
+     */
+    default byte[] getDirectory(final Path path, final BasicFileAttributes attrs) {
+        return null;
+    }
+
+    /**
+     * Called for every file, which was hashed during the current walk. Called from multiple threads
+     *
+     * @param path   - path of the file
+     * @param attrs  - attributes of the file at the moment it was hashed
+     * @param digest - digest of the file
+     */
+    default void put(final Path path, final BasicFileAttributes attrs, final byte[] digest) {
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.github.welandaz;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+
+/**
+ * Histogram of latencies in nanoseconds with power of two buckets. Bucket {@code i} counts latencies
+ * in the range {@code [2^(i-1), 2^i)}, bucket 0 counts zero latencies. Recording is lock-free
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void record(final long nanos) {
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+    }
+
+    /**
+     * @return - number of recorded latencies
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket, which contains the specified percentile. The result is at most
+     * twice as large as the exact percentile
+     *
+     * @param percentile - percentile in the range [0, 100]
+     * @return - latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long percentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(format("Percentile must be in range [0, 100], but was [%s]", percentile));
+        }
+
+        final long[] counts = buckets();
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (counts[i] > 0 && seen >= rank) {
+                return upperBound(i);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return - copy of the bucket counters
+     */
+    public long[] buckets() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+
+        return counts;
+    }
+
+    private static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+}
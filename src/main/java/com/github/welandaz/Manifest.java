@@ -0,0 +1,397 @@
+package com.github.welandaz;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Read-only view of a binary manifest, written by {@link HashProducer#toManifest(Path)}.
+ * <p>
+ * The manifest is memory-mapped, so neither opening it nor looking up a path loads its content into the heap.
+ * Paths are sorted, so a single path is found with a binary search over the sparse index followed by
+ * a scan of one block, and two manifests are compared in a single sequential pass over both.
+ * An instance is safe to be used by multiple threads
+ */
+public final class Manifest implements Iterable<ManifestEntry>, Closeable {
+
+    static final int MAGIC = 0x46484D46;
+    static final int VERSION = 1;
+    static final int BLOCK_ENTRIES = 64;
+    static final int DIRECTORY = 1;
+
+    private static final int FOOTER_LENGTH = 40;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path file;
+    private final ByteBuffer[] segments;
+    private final String algorithm;
+    private final DirectoryScheme directoryScheme;
+    private final int digestLength;
+    private final long tableOffset;
+    private final long size;
+    private final int blockCount;
+    private final long modifiedNanos;
+
+    private Manifest(final Path file, final ByteBuffer[] segments, final String algorithm, final DirectoryScheme directoryScheme,
+                     final int digestLength, final long tableOffset, final long size, final int blockCount, final long modifiedNanos) {
+        this.file = file;
+        this.segments = segments;
+        this.algorithm = algorithm;
+        this.directoryScheme = directoryScheme;
+        this.digestLength = digestLength;
+        this.tableOffset = tableOffset;
+        this.size = size;
+        this.blockCount = blockCount;
+        this.modifiedNanos = modifiedNanos;
+    }
+
+    /**
+     * Opens and memory-maps the manifest file
+     *
+     * @param file - manifest file
+     * @return - manifest
+     * @throws IOException - if the file can't be read, or is not a manifest
+     */
+    @Nonnull
+    public static Manifest open(@Nonnull final Path file) throws IOException {
+        Objects.requireNonNull(file, "manifest file must not be null");
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length < FOOTER_LENGTH) {
+                throw new IOException(format("File [%s] is not a manifest", file));
+            }
+
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+            while (footer.hasRemaining()) {
+                if (channel.read(footer, length - FOOTER_LENGTH + footer.position()) < 0) {
+                    throw new IOException(format("File [%s] is truncated", file));
+                }
+            }
+            footer.flip();
+
+            footer.getLong();
+            final long tableOffset = footer.getLong();
+            final long size = footer.getLong();
+            final int blockCount = footer.getInt();
+            final int maxRecordLength = footer.getInt();
+            final int version = footer.getInt();
+            if (footer.getInt() != MAGIC || version != VERSION) {
+                throw new IOException(format("File [%s] is not a manifest of version [%d]", file, VERSION));
+            }
+
+            final ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = i * SEGMENT_SIZE;
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + maxRecordLength, length - start));
+                segments[i] = segment;
+            }
+
+            final ByteBuffer header = segments[0].duplicate();
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException(format("File [%s] is not a manifest of version [%d]", file, VERSION));
+            }
+            final String algorithm = getString(header);
+            final DirectoryScheme directoryScheme = DirectoryScheme.valueOf(getString(header));
+            final int digestLength = (int) getVarLong(header);
+
+            return new Manifest(file, segments, algorithm, directoryScheme, digestLength, tableOffset, size, blockCount,
+                    Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    /**
+     * @return - identifier of the algorithm, which produced hashes of files
+     */
+    @Nonnull
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return - scheme, which produced hashes of directories
+     */
+    @Nonnull
+    public DirectoryScheme directoryScheme() {
+        return directoryScheme;
+    }
+
+    /**
+     * @return - number of entries in the manifest
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return - modification time of the manifest file, in nanoseconds since the epoch, i.e. when it was written
+     */
+    long modifiedNanos() {
+        return modifiedNanos;
+    }
+
+    /**
+     * Looks up the entry by its path
+     *
+     * @param path - path relative to the hashed root, with '/' as a separator
+     * @return - entry, or null if the manifest doesn't contain the path
+     */
+    @Nullable
+    public ManifestEntry get(@Nonnull final String path) {
+        return get(Objects.requireNonNull(path, "path must not be null").getBytes(StandardCharsets.UTF_8));
+    }
+
+    ManifestEntry get(final byte[] key) {
+        final Cursor cursor = seek(key);
+        if (cursor.hasNext()) {
+            final ManifestEntry entry = cursor.next();
+            if (Arrays.equals(entry.key(), key)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return - iterator over all entries in the order of their paths
+     */
+    @Nonnull
+    @Override
+    public Iterator<ManifestEntry> iterator() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Compares two manifests in a single pass, without loading either of them into memory
+     *
+     * @param before   - manifest of the older snapshot
+     * @param after    - manifest of the newer snapshot
+     * @param listener - receives differences in the order of paths
+     */
+    public static void diff(@Nonnull final Manifest before, @Nonnull final Manifest after, @Nonnull final DiffListener listener) {
+        Objects.requireNonNull(before, "before manifest must not be null");
+        Objects.requireNonNull(after, "after manifest must not be null");
+        Objects.requireNonNull(listener, "listener must not be null");
+
+        final Iterator<ManifestEntry> left = before.iterator();
+        final Iterator<ManifestEntry> right = after.iterator();
+        ManifestEntry first = left.hasNext() ? left.next() : null;
+        ManifestEntry second = right.hasNext() ? right.next() : null;
+
+        while (first != null || second != null) {
+            final int comparison = first == null ? 1 : second == null ? -1
+                    : compare(first.key(), first.key().length, second.key(), second.key().length);
+            if (comparison < 0) {
+                listener.removed(first);
+                first = left.hasNext() ? left.next() : null;
+            } else if (comparison > 0) {
+                listener.added(second);
+                second = right.hasNext() ? right.next() : null;
+            } else {
+                if (first.isDirectory() != second.isDirectory() || !Arrays.equals(first.digest(), second.digest())) {
+                    listener.modified(first, second);
+                }
+                first = left.hasNext() ? left.next() : null;
+                second = right.hasNext() ? right.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Releases the manifest. Mapped memory is unmapped, once the manifest is garbage collected
+     */
+    @Override
+    public void close() {
+        Arrays.fill(segments, null);
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * Returns an iterator, positioned at the first entry with a path, which is not less than the specified one
+     */
+    Cursor seek(final byte[] key) {
+        int low = 0;
+        int high = blockCount - 1;
+        int block = 0;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final ByteBuffer buffer = at(at(tableOffset + middle * 16L).getLong());
+            final int length = (int) getVarLong(buffer);
+            if (compare(buffer, length, key) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        final Cursor cursor = new Cursor(block);
+        cursor.skipUntil(key);
+
+        return cursor;
+    }
+
+    /**
+     * Converts a path to a key, i.e. to a UTF-8 path relative to the root with '/' as a separator
+     */
+    static byte[] key(final Path root, final Path path) {
+        final StringBuilder key = new StringBuilder();
+        for (final Path name : root.relativize(path)) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(name);
+        }
+
+        return key.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares keys as unsigned bytes, so that paths sharing a prefix are always adjacent
+     */
+    static int compare(final byte[] first, final int firstLength, final byte[] second, final int secondLength) {
+        final int length = Math.min(firstLength, secondLength);
+        for (int i = 0; i < length; i++) {
+            final int comparison = (first[i] & 0xFF) - (second[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+
+        return firstLength - secondLength;
+    }
+
+    private static int compare(final ByteBuffer buffer, final int length, final byte[] key) {
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            final int comparison = (buffer.get() & 0xFF) - (key[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    private ByteBuffer at(final long offset) {
+        final int segment = (int) (offset / SEGMENT_SIZE);
+        final ByteBuffer buffer = segments[segment];
+        if (buffer == null) {
+            throw new IllegalStateException(format("Manifest [%s] is closed", file));
+        }
+
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position((int) (offset - segment * SEGMENT_SIZE));
+
+        return duplicate;
+    }
+
+    private static long getVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return value;
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[(int) getVarLong(buffer)];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sequential reader of entries, starting from the beginning of a block
+     */
+    final class Cursor implements Iterator<ManifestEntry> {
+
+        private int block;
+        private long index;
+        private ByteBuffer buffer;
+        private byte[] key = new byte[256];
+        private ManifestEntry next;
+
+        private Cursor(final int block) {
+            this.block = block;
+            this.index = (long) block * BLOCK_ENTRIES;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && index < size) {
+                next = read();
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public ManifestEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final ManifestEntry entry = next;
+            next = null;
+
+            return entry;
+        }
+
+        private void skipUntil(final byte[] target) {
+            while (hasNext() && compare(next.key(), next.key().length, target, target.length) < 0) {
+                next = null;
+            }
+        }
+
+        private ManifestEntry read() {
+            if (index % BLOCK_ENTRIES == 0) {
+                buffer = at(at(tableOffset + block * 16L + 8).getLong());
+                block++;
+            }
+            index++;
+
+            final int shared = (int) getVarLong(buffer);
+            final int suffix = (int) getVarLong(buffer);
+            if (key.length < shared + suffix) {
+                key = Arrays.copyOf(key, Math.max(shared + suffix, key.length * 2));
+            }
+            buffer.get(key, shared, suffix);
+
+            final boolean directory = (buffer.get() & DIRECTORY) != 0;
+            final long fileSize = getVarLong(buffer);
+            final long modifiedTime = buffer.getLong();
+            final int fileKey = buffer.getInt();
+            final byte[] digest = new byte[digestLength];
+            buffer.get(digest);
+
+            return new ManifestEntry(Arrays.copyOf(key, shared + suffix), digest, directory, fileSize, modifiedTime, fileKey);
+        }
+    }
+
+}
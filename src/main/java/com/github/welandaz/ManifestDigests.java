@@ -0,0 +1,68 @@
+package com.github.welandaz;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Reuses hashes from a previously written {@link Manifest}. A file hash is reused, if size, modification time
+ * and file key of the file match the manifest. A directory hash is reused only if pruning is enabled,
+ * and modification time and file key of the directory match the manifest.
+ * <p>
+ * Same as in {@link HashCache}, hashes of entries modified less than {@link HashCache#RACY_NANOS} before
+ * the manifest was written are never reused, as a change within the same tick of the file system clock
+ * would leave their attributes unchanged
+ */
+final class ManifestDigests implements KnownDigests {
+
+    private final Manifest manifest;
+    private final Path root;
+    private final boolean pruneDirectories;
+    private final KnownDigests fallback;
+    private final long racyFrom;
+
+    ManifestDigests(final Manifest manifest, final Path root, final boolean pruneDirectories, final KnownDigests fallback) {
+        this.manifest = manifest;
+        this.root = root;
+        this.pruneDirectories = pruneDirectories;
+        this.fallback = fallback;
+        this.racyFrom = manifest.modifiedNanos() - HashCache.RACY_NANOS;
+    }
+
+    @Override
+    public byte[] get(final Path path, final BasicFileAttributes attrs) {
+        final ManifestEntry entry = manifest.get(Manifest.key(root, path));
+        if (entry != null && !entry.isDirectory() && entry.size() == attrs.size() && matches(entry, attrs)) {
+            // the cache is rewritten after the walk, so it has to keep the hash, even if it was taken from the manifest
+            put(path, attrs, entry.digest());
+
+            return entry.digest();
+        }
+
+        return fallback == null ? null : fallback.get(path, attrs);
+    }
+
+    @Override
+    public byte[] getDirectory(final Path path, final BasicFileAttributes attrs) {
+        if (pruneDirectories) {
+            final ManifestEntry entry = manifest.get(Manifest.key(root, path));
+            if (entry != null && entry.isDirectory() && matches(entry, attrs)) {
+                return entry.digest();
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void put(final Path path, final BasicFileAttributes attrs, final byte[] digest) {
+        if (fallback != null) {
+            fallback.put(path, attrs, digest);
+        }
+    }
+
+    private boolean matches(final ManifestEntry entry, final BasicFileAttributes attrs) {
+        return entry.modifiedNanos() < racyFrom
+                && entry.modifiedNanos() == HashCache.modifiedTime(attrs) && entry.fileKey() == HashCache.fileKey(attrs);
+    }
+
+}
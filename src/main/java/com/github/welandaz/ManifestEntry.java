@@ -0,0 +1,105 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.StringUtils;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash of a single file or directory, stored in a {@link Manifest}
+ */
+public final class ManifestEntry {
+
+    private final byte[] key;
+    private final byte[] digest;
+    private final boolean directory;
+    private final long size;
+    private final long modifiedTime;
+    private final int fileKey;
+
+    ManifestEntry(final byte[] key, final byte[] digest, final boolean directory,
+                  final long size, final long modifiedTime, final int fileKey) {
+        this.key = key;
+        this.digest = digest;
+        this.directory = directory;
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * @return - path relative to the hashed root, with '/' as a separator. The root itself has an empty path
+     */
+    @Nonnull
+    public String path() {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the raw digest. The array is not copied, so it must not be modified by the caller
+     *
+     * @return - digest of the file content, or of the hashes of directory children
+     */
+    @Nonnull
+    public byte[] digest() {
+        return digest;
+    }
+
+    /**
+     * @return - hexadecimal representation of the digest
+     */
+    @Nonnull
+    public String hash() {
+        return StringUtils.toHexString(digest);
+    }
+
+    /**
+     * @return - true, if the entry is a directory
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return - size of the file in bytes at the moment it was hashed
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return - modification time at the moment the entry was hashed
+     */
+    @Nonnull
+    public FileTime modifiedTime() {
+        return FileTime.from(modifiedTime, TimeUnit.NANOSECONDS);
+    }
+
+    static ManifestEntry of(final byte[] key, final HashEntry entry) {
+        final BasicFileAttributes attrs = entry.attributes();
+
+        return new ManifestEntry(key, entry.digest(), attrs.isDirectory(),
+                attrs.isDirectory() ? 0 : attrs.size(), HashCache.modifiedTime(attrs), HashCache.fileKey(attrs));
+    }
+
+    byte[] key() {
+        return key;
+    }
+
+    long modifiedNanos() {
+        return modifiedTime;
+    }
+
+    int fileKey() {
+        return fileKey;
+    }
+
+    @Override
+    public String toString() {
+        return path() + ": " + hash();
+    }
+
+}
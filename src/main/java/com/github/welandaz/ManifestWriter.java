@@ -0,0 +1,425 @@
+package com.github.welandaz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Collects hashes and writes them to a binary {@link Manifest}.
+ * <p>
+ * Entries are sorted by path and written in blocks of {@link Manifest#BLOCK_ENTRIES} entries. Within a block
+ * every path is stored as the length of the prefix it shares with the previous path, followed by the rest of it.
+ * The first entry of every block is stored in full, and its path is repeated in the sparse index,
+ * which allows a reader to binary search for the block of any path.
+ * <p>
+ * At most {@link #RUN_ENTRIES} entries are kept in memory. Once there are more, they are sorted and spilled
+ * to a temporary run file, and all runs are merged while the manifest is written, so the heap, used by a walk
+ * of any size, stays bounded
+ */
+final class ManifestWriter implements Consumer<HashEntry>, Closeable {
+
+    static final int RUN_ENTRIES = 256 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final Comparator<ManifestEntry> ORDER =
+            (first, second) -> Manifest.compare(first.key(), first.key().length, second.key(), second.key().length);
+
+    private final Path root;
+    private final String algorithm;
+    private final DirectoryScheme directoryScheme;
+    private final int runEntries;
+    private final List<ManifestEntry> entries = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private int digestLength = -1;
+    private long count;
+
+    ManifestWriter(final Path root, final String algorithm, final DirectoryScheme directoryScheme) {
+        this(root, algorithm, directoryScheme, RUN_ENTRIES);
+    }
+
+    /**
+     * @param root            - hashed root, paths of entries are stored relative to it
+     * @param algorithm       - name of the hash function
+     * @param directoryScheme - scheme of directory hashes
+     * @param runEntries      - number of entries kept in memory, before they are spilled to a run file
+     */
+    ManifestWriter(final Path root, final String algorithm, final DirectoryScheme directoryScheme, final int runEntries) {
+        this.root = root;
+        this.algorithm = algorithm;
+        this.directoryScheme = directoryScheme;
+        this.runEntries = runEntries;
+    }
+
+    @Override
+    public void accept(final HashEntry entry) {
+        add(ManifestEntry.of(Manifest.key(root, entry.path()), entry));
+    }
+
+    /**
+     * Adds an entry, which was read from another manifest
+     *
+     * @param entry - entry to add
+     */
+    void add(final ManifestEntry entry) {
+        if (digestLength >= 0 && digestLength != entry.digest().length) {
+            throw new IllegalArgumentException(format("Digest of [%s] has a different length", entry.path()));
+        }
+        digestLength = entry.digest().length;
+        entries.add(entry);
+        count++;
+        if (entries.size() >= runEntries) {
+            try {
+                spill();
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Error occurred while spilling manifest entries", e);
+            }
+        }
+    }
+
+    /**
+     * Sorts collected entries, merging them with spilled runs, and writes them to a temporary file,
+     * which then replaces the output
+     *
+     * @param output - manifest file
+     * @throws IOException - if an I/O error occurs while writing the manifest
+     */
+    void write(final Path output) throws IOException {
+        final Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        try (final Sorted sorted = sorted();
+             final Output out = new Output(FileChannel.open(tmp,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            final int digestLength = Math.max(this.digestLength, 0);
+
+            out.putInt(Manifest.MAGIC);
+            out.putByte(Manifest.VERSION);
+            out.putString(algorithm);
+            out.putString(directoryScheme.name());
+            out.putVarLong(digestLength);
+
+            final int blockCount = (int) ((count + Manifest.BLOCK_ENTRIES - 1) / Manifest.BLOCK_ENTRIES);
+            final long[] blockOffsets = new long[blockCount];
+            final byte[][] blockKeys = new byte[blockCount][];
+            int maxRecordLength = 16;
+
+            byte[] last = null;
+            for (int block = 0; block < blockCount; block++) {
+                blockOffsets[block] = out.position();
+
+                byte[] previous = new byte[0];
+                final long end = Math.min(count, (block + 1L) * Manifest.BLOCK_ENTRIES);
+                for (long i = (long) block * Manifest.BLOCK_ENTRIES; i < end; i++) {
+                    final ManifestEntry entry = sorted.next();
+                    final byte[] key = entry.key();
+                    if (last != null && Manifest.compare(key, key.length, last, last.length) == 0) {
+                        throw new IllegalArgumentException(format("Duplicate entry [%s]", entry.path()));
+                    }
+                    if (blockKeys[block] == null) {
+                        blockKeys[block] = key;
+                    }
+                    final int shared = sharedPrefix(previous, key);
+
+                    out.putVarLong(shared);
+                    out.putVarLong(key.length - shared);
+                    out.putBytes(key, shared, key.length - shared);
+                    out.putByte(entry.isDirectory() ? Manifest.DIRECTORY : 0);
+                    out.putVarLong(entry.size());
+                    out.putLong(entry.modifiedNanos());
+                    out.putInt(entry.fileKey());
+                    out.putBytes(entry.digest(), 0, digestLength);
+
+                    previous = key;
+                    last = key;
+                }
+                maxRecordLength = (int) Math.max(maxRecordLength, out.position() - blockOffsets[block]);
+            }
+
+            final long keysOffset = out.position();
+            final long[] keyOffsets = new long[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                final byte[] key = blockKeys[block];
+                keyOffsets[block] = out.position();
+                out.putVarLong(key.length);
+                out.putBytes(key, 0, key.length);
+                maxRecordLength = (int) Math.max(maxRecordLength, out.position() - keyOffsets[block]);
+            }
+
+            final long tableOffset = out.position();
+            for (int block = 0; block < blockCount; block++) {
+                out.putLong(keyOffsets[block]);
+                out.putLong(blockOffsets[block]);
+            }
+
+            out.putLong(keysOffset);
+            out.putLong(tableOffset);
+            out.putLong(count);
+            out.putInt(blockCount);
+            out.putInt(maxRecordLength);
+            out.putInt(Manifest.VERSION);
+            out.putInt(Manifest.MAGIC);
+        }
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes spilled runs
+     *
+     * @throws IOException - if a run can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        entries.clear();
+        IOException failure = null;
+        for (final Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (final IOException e) {
+                failure = e;
+            }
+        }
+        runs.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Sorts entries in memory and writes them to a new run file
+     */
+    private void spill() throws IOException {
+        entries.sort(ORDER);
+        final Path run = Files.createTempFile("filehash-manifest-", ".run");
+        runs.add(run);
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            out.writeInt(entries.size());
+            for (final ManifestEntry entry : entries) {
+                out.writeInt(entry.key().length);
+                out.write(entry.key());
+                out.writeBoolean(entry.isDirectory());
+                out.writeLong(entry.size());
+                out.writeLong(entry.modifiedNanos());
+                out.writeInt(entry.fileKey());
+                out.write(entry.digest());
+            }
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return - all entries in order, either sorted in memory, or merged from runs, if any were spilled
+     */
+    private Sorted sorted() throws IOException {
+        if (runs.isEmpty()) {
+            entries.sort(ORDER);
+            final Iterator<ManifestEntry> iterator = entries.iterator();
+
+            return new Sorted() {
+                @Override
+                public ManifestEntry next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+        if (!entries.isEmpty()) {
+            spill();
+        }
+
+        final PriorityQueue<Run> queue = new PriorityQueue<>((first, second) -> ORDER.compare(first.head, second.head));
+        final int digestLength = Math.max(this.digestLength, 0);
+        try {
+            for (final Path file : runs) {
+                final Run run = new Run(file, digestLength);
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.in.close();
+                }
+            }
+        } catch (final IOException e) {
+            for (final Run run : queue) {
+                run.in.close();
+            }
+            throw e;
+        }
+
+        return new Sorted() {
+            @Override
+            public ManifestEntry next() throws IOException {
+                final Run run = queue.poll();
+                final ManifestEntry entry = run.head;
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.in.close();
+                }
+
+                return entry;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (final Run run : queue) {
+                    run.in.close();
+                }
+            }
+        };
+    }
+
+    private static int sharedPrefix(final byte[] first, final byte[] second) {
+        final int length = Math.min(first.length, second.length);
+        int i = 0;
+        while (i < length && first[i] == second[i]) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private interface Sorted extends AutoCloseable {
+
+        ManifestEntry next() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Sorted run file, read one entry ahead
+     */
+    private static final class Run {
+
+        private final DataInputStream in;
+        private final int digestLength;
+        private int remaining;
+        private ManifestEntry head;
+
+        private Run(final Path file, final int digestLength) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE / 16));
+            this.digestLength = digestLength;
+            this.remaining = in.readInt();
+        }
+
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            remaining--;
+
+            final byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            final boolean directory = in.readBoolean();
+            final long size = in.readLong();
+            final long modifiedTime = in.readLong();
+            final int fileKey = in.readInt();
+            final byte[] digest = new byte[digestLength];
+            in.readFully(digest);
+            head = new ManifestEntry(key, digest, directory, size, modifiedTime, fileKey);
+
+            return true;
+        }
+    }
+
+    /**
+     * Buffered output to a channel, which keeps track of the absolute position
+     */
+    private static final class Output implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long flushed;
+
+        private Output(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private long position() {
+            return flushed + buffer.position();
+        }
+
+        private void putByte(final int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        private void putInt(final int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(final long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void putString(final String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        private void putBytes(final byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensure(1);
+                final int count = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        private void ensure(final int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.github.welandaz;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Releases memory mappings explicitly, rather than when their buffers are garbage collected, so that hashing
+ * many large files keeps a single live mapping per thread, instead of exhausting the address space or the limit
+ * of mappings of the process.
+ * <p>
+ * The JDK has no public API to unmap a buffer, so {@code sun.misc.Unsafe#invokeCleaner} is used on Java 9+,
+ * and the cleaner of the buffer on Java 8. If neither is available, mappings are released by the garbage collector
+ */
+final class MappedBuffers {
+
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Unmaps the buffer. The buffer, and any buffer derived from it, must not be accessed afterwards
+     *
+     * @param buffer - buffer, returned by {@link java.nio.channels.FileChannel#map}
+     */
+    static void unmap(final MappedByteBuffer buffer) {
+        UNMAPPER.accept(buffer);
+    }
+
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // not Java 9+, the cleaner of the buffer is tried next
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            cleaner.setAccessible(true);
+            clean.setAccessible(true);
+
+            return buffer -> {
+                final Object bufferCleaner = invoke(cleaner, buffer);
+                if (bufferCleaner != null) {
+                    invoke(clean, bufferCleaner);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return buffer -> {
+            };
+        }
+    }
+
+    /**
+     * Invokes the method, a failure leaves the mapping to the garbage collector
+     */
+    private static Object invoke(final Method method, final Object target, final Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (final IllegalAccessException | InvocationTargetException | RuntimeException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.github.welandaz;
+
+import java.nio.file.Path;
+
+/**
+ * Receives metrics of a walk, enabled by {@link HashProducer#metrics(MetricsListener)}.
+ * All methods do nothing by default, so only the required ones have to be implemented
+ */
+public interface MetricsListener {
+
+    /**
+     * Called on a hashing thread after a file is read and hashed. Files with reused hashes are not reported
+     *
+     * @param file  - hashed file
+     * @param bytes - number of bytes read
+     * @param nanos - time spent on reading and hashing the file
+     */
+    default void fileHashed(final Path file, final long bytes, final long nanos) {
+    }
+
+    /**
+     * Called periodically on a separate thread while the walk is in progress
+     *
+     * @param metrics - live metrics of the walk
+     */
+    default void progress(final ScanMetrics metrics) {
+    }
+
+    /**
+     * Called on the walking thread once the walk is completed successfully
+     *
+     * @param metrics - final metrics of the walk
+     */
+    default void completed(final ScanMetrics metrics) {
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.github.welandaz;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes {@link ScanMetrics} of a walk, which is in progress: sends periodic progress callbacks
+ * from a daemon thread, and registers the metrics as an MBean until the walk is finished
+ */
+final class MetricsReporter implements Closeable {
+
+    private final ScheduledExecutorService scheduler;
+    private final ObjectName objectName;
+
+    private MetricsReporter(final ScheduledExecutorService scheduler, final ObjectName objectName) {
+        this.scheduler = scheduler;
+        this.objectName = objectName;
+    }
+
+    /**
+     * @param metrics          - metrics of the walk
+     * @param progressInterval - interval between progress callbacks in nanoseconds
+     * @param objectName       - name of the MBean, or null to not register it
+     * @return - started reporter
+     */
+    static MetricsReporter start(final ScanMetrics metrics, final long progressInterval, final ObjectName objectName) {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            } catch (final JMException e) {
+                throw new IllegalStateException(format("MBean [%s] can't be registered", objectName), e);
+            }
+        }
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "filehash-metrics");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> progress(metrics), progressInterval, progressInterval, TimeUnit.NANOSECONDS);
+
+        return new MetricsReporter(scheduler, objectName);
+    }
+
+    /**
+     * Sends a progress callback. An exception thrown by the listener would cancel all further callbacks,
+     * so it is passed to the uncaught exception handler of the thread instead, and reporting goes on
+     */
+    private static void progress(final ScanMetrics metrics) {
+        try {
+            metrics.progress();
+        } catch (final RuntimeException e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (final JMException e) {
+                // already unregistered, nothing to clean up
+            }
+        }
+    }
+
+}
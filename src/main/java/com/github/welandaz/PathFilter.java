@@ -0,0 +1,123 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Decides, which files and directories of the input are hashed. Patterns are matched against paths relative
+ * to the input. Excluded directories are skipped along with their subtrees, so they are neither listed nor read.
+ * <p>
+ * Exclude patterns, the hidden file rule and custom predicates apply to both files and directories. Include
+ * patterns, size range and modification time window apply to files only, as directories have to be walked
+ * to find included files. The input itself is never filtered
+ */
+final class PathFilter {
+
+    private final Path input;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<BiPredicate<Path, BasicFileAttributes>> predicates = new ArrayList<>();
+    private long minSize;
+    private long maxSize = Long.MAX_VALUE;
+    private FileTime modifiedFrom;
+    private FileTime modifiedTo;
+    private boolean skipHidden;
+
+    PathFilter(final Path input) {
+        this.input = input;
+    }
+
+    void include(final String syntaxAndPattern) {
+        includes.add(input.getFileSystem().getPathMatcher(syntaxAndPattern));
+    }
+
+    void exclude(final String syntaxAndPattern) {
+        excludes.add(input.getFileSystem().getPathMatcher(syntaxAndPattern));
+    }
+
+    void sizeRange(final long minSize, final long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    void modifiedBetween(final FileTime from, final FileTime to) {
+        this.modifiedFrom = from;
+        this.modifiedTo = to;
+    }
+
+    void skipHidden(final boolean skipHidden) {
+        this.skipHidden = skipHidden;
+    }
+
+    void add(final BiPredicate<Path, BasicFileAttributes> predicate) {
+        predicates.add(predicate);
+    }
+
+    /**
+     * @return - whether every file and directory is accepted
+     */
+    boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty() && predicates.isEmpty() && minSize == 0 && maxSize == Long.MAX_VALUE
+                && modifiedFrom == null && !skipHidden;
+    }
+
+    /**
+     * @return - whether the directory and its subtree should be walked
+     * @throws IOException - if the hidden attribute can't be read
+     */
+    boolean acceptDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+        return isEmpty() || dir.equals(input) || accept(dir, attrs, input.relativize(dir));
+    }
+
+    /**
+     * @return - whether the file should be hashed
+     * @throws IOException - if the hidden attribute can't be read
+     */
+    boolean acceptFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+        if (isEmpty() || file.equals(input)) {
+            return true;
+        }
+        if (attrs.size() < minSize || attrs.size() > maxSize) {
+            return false;
+        }
+        if (modifiedFrom != null && (attrs.lastModifiedTime().compareTo(modifiedFrom) < 0
+                || attrs.lastModifiedTime().compareTo(modifiedTo) >= 0)) {
+            return false;
+        }
+
+        final Path relative = input.relativize(file);
+
+        return (includes.isEmpty() || matches(includes, relative)) && accept(file, attrs, relative);
+    }
+
+    private boolean accept(final Path path, final BasicFileAttributes attrs, final Path relative) throws IOException {
+        if (matches(excludes, relative) || skipHidden && Files.isHidden(path)) {
+            return false;
+        }
+        for (final BiPredicate<Path, BasicFileAttributes> predicate : predicates) {
+            if (!predicate.test(path, attrs)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(final List<PathMatcher> matchers, final Path relative) {
+        for (final PathMatcher matcher : matchers) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.github.welandaz;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Hashes files in two stages, for file systems with a high latency of reads, e.g. NFS or FUSE mounts.
+ * <p>
+ * Files are read on a pool of blocking reader threads, which is much larger than the number of cores,
+ * so that many reads wait for the file system at the same time. Every buffer, which is read, is passed
+ * to the digest stage, which updates the digest of the file on the CPU executor, one buffer after another.
+ * Buffers are taken from a bounded pool, so readers wait, if digests don't keep up with reads. Every buffer
+ * is returned to the pool, even if the read or any stage of the digest of its file fails
+ */
+final class ReadPipeline implements Closeable {
+
+    private final Supplier<MessageDigest> messageDigests;
+    private final int bufferSize;
+    private final int bufferCount;
+    private final Executor digesters;
+    private final ExecutorService readers;
+    private final BlockingQueue<ByteBuffer> buffers = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final ScanMetrics metrics;
+
+    /**
+     * @param messageDigests - supplier of digests, owned by the calling thread
+     * @param bufferSize     - size of a single read
+     * @param readers        - number of reader threads
+     * @param digesters      - executor of the digest stage
+     * @param metrics        - metrics to record read and digest times to, or null
+     */
+    ReadPipeline(final Supplier<MessageDigest> messageDigests, final int bufferSize, final int readers,
+                 final Executor digesters, final ScanMetrics metrics) {
+        this.messageDigests = messageDigests;
+        this.bufferSize = bufferSize;
+        this.bufferCount = readers * 2;
+        this.digesters = digesters;
+        this.metrics = metrics;
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(readers, runnable -> {
+            final Thread thread = new Thread(runnable, "filehash-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Reads the file on a reader thread and digests its content on the digest stage
+     *
+     * @param file - file to hash
+     * @return - digest of the file content. Cancelling it stops reading the file
+     */
+    CompletableFuture<byte[]> hash(final Path file) {
+        return hash(file, digest -> {
+        });
+    }
+
+    /**
+     * Reads the file on a reader thread and digests its content on the digest stage. Work, which depends
+     * on the digest, is passed as the callback rather than chained to the returned future, because cancelling
+     * a dependent future doesn't cancel its source, so the file would still be read
+     *
+     * @param file     - file to hash
+     * @param digested - callback, called with the digest on the digest stage, before the returned future completes
+     * @return - digest of the file content. Cancelling it stops reading the file
+     */
+    CompletableFuture<byte[]> hash(final Path file, final Consumer<byte[]> digested) {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        readers.execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                read(file, result, digested);
+            } catch (final IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            } catch (final InterruptedException e) {
+                result.completeExceptionally(new InterruptedIOException(format("Interrupted while reading [%s]", file)));
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Runs a task, which reads and digests a file by itself, on a reader thread
+     */
+    <T> Future<T> submit(final Callable<T> task) {
+        return readers.submit(task);
+    }
+
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    private void read(final Path file, final CompletableFuture<byte[]> result, final Consumer<byte[]> callback)
+            throws IOException, InterruptedException {
+        final long start = metrics == null ? 0 : System.nanoTime();
+        final MessageDigest messageDigest = Hash.copyOf(messageDigests.get());
+        CompletableFuture<MessageDigest> digested = CompletableFuture.completedFuture(messageDigest);
+
+        long bytes = 0;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (!result.isDone() && !digested.isCompletedExceptionally()) {
+                final ByteBuffer buffer = take();
+                final long time = metrics == null ? 0 : System.nanoTime();
+                final int read;
+                try {
+                    read = channel.read(buffer);
+                } catch (final IOException | RuntimeException e) {
+                    buffers.add(buffer);
+                    throw e;
+                }
+                if (metrics != null) {
+                    metrics.read(time);
+                }
+                if (read < 0) {
+                    buffers.add(buffer);
+                    break;
+                }
+                bytes += read;
+                buffer.flip();
+                digested = digested.handleAsync((digest, e) -> {
+                    if (e != null) {
+                        // a previous stage failed, so the buffer is released without being digested
+                        buffers.add(buffer);
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+
+                    return update(digest, buffer);
+                }, digesters);
+            }
+        }
+
+        final long size = bytes;
+        digested.whenComplete((digest, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                final byte[] hash = digest.digest();
+                if (metrics != null) {
+                    metrics.fileHashed(file, size, System.nanoTime() - start);
+                }
+                try {
+                    callback.accept(hash);
+                } catch (final RuntimeException failure) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                result.complete(hash);
+            }
+        });
+    }
+
+    private MessageDigest update(final MessageDigest messageDigest, final ByteBuffer buffer) {
+        final long time = metrics == null ? 0 : System.nanoTime();
+        try {
+            messageDigest.update(buffer);
+
+            return messageDigest;
+        } finally {
+            if (metrics != null) {
+                metrics.digested(time);
+            }
+            buffers.add(buffer);
+        }
+    }
+
+    /**
+     * Takes a free buffer, allocating a new one until the pool is full
+     */
+    private ByteBuffer take() throws InterruptedException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = allocated.get() < bufferCount && allocated.incrementAndGet() <= bufferCount
+                    ? ByteBuffer.allocateDirect(bufferSize)
+                    : buffers.take();
+        }
+        buffer.clear();
+
+        return buffer;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.github.welandaz;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the size of buffered reads per file, and learns the read size with the best throughput during a walk.
+ * <p>
+ * A file, which fits into the current read size, is read in a single call into a buffer of its size. Larger files
+ * are read in reads of the current size. Every buffer is direct, owned by a thread and reused, it only grows,
+ * when a larger read is needed, and never beyond the maximal read size.
+ * <p>
+ * Throughput of full-size reads of large files is measured in windows of {@link #WINDOW_READS} reads. After every
+ * window the read size is doubled or halved: in the same direction, if the throughput improved, or in the opposite
+ * one otherwise, so the size climbs towards the best one within the bounds, and then oscillates around it
+ */
+final class ReadSizer {
+
+    static final int WINDOW_READS = 64;
+
+    private final int minReadSize;
+    private final int maxReadSize;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    private volatile int readSize;
+    private long windowBytes;
+    private long windowNanos;
+    private int windowReads;
+    private double previousThroughput;
+    private boolean growing = true;
+
+    /**
+     * @param minReadSize     - minimal size of a read
+     * @param maxReadSize     - maximal size of a read
+     * @param initialReadSize - read size to start from, clamped to the bounds
+     */
+    ReadSizer(final int minReadSize, final int maxReadSize, final int initialReadSize) {
+        this.minReadSize = minReadSize;
+        this.maxReadSize = maxReadSize;
+        this.readSize = clamp(initialReadSize);
+    }
+
+    /**
+     * @return - current size of reads of large files
+     */
+    int readSize() {
+        return readSize;
+    }
+
+    /**
+     * Returns a cleared buffer of the calling thread, limited to the size of a single read of the file
+     *
+     * @param fileSize - expected size of the file
+     * @return - buffer for reads of the file
+     */
+    ByteBuffer buffer(final long fileSize) {
+        final int size = readSize;
+        // one spare byte, so that the end of a file, which fits into a single read, is seen by the next read
+        final int limit = fileSize < size ? (int) Math.max(fileSize + 1, 1) : size;
+
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() < limit) {
+            buffer = ByteBuffer.allocateDirect(Math.max(limit, Math.min(minReadSize, maxReadSize)));
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(limit);
+
+        return buffer;
+    }
+
+    /**
+     * Records a read. Only reads, which filled a buffer of the current read size, are measured
+     *
+     * @param limit - limit of the buffer
+     * @param bytes - number of bytes read
+     * @param nanos - duration of the read
+     */
+    void record(final int limit, final int bytes, final long nanos) {
+        if (limit == readSize && bytes == limit) {
+            measure(bytes, nanos);
+        }
+    }
+
+    private synchronized void measure(final int bytes, final long nanos) {
+        if (bytes != readSize) {
+            // read with a size, which was changed in the meantime
+            return;
+        }
+        windowBytes += bytes;
+        windowNanos += nanos;
+        if (++windowReads < WINDOW_READS) {
+            return;
+        }
+
+        final double throughput = windowBytes / (double) Math.max(windowNanos, 1);
+        if (throughput < previousThroughput) {
+            growing = !growing;
+        }
+        previousThroughput = throughput;
+
+        int next = clamp(growing ? readSize * 2L : readSize / 2L);
+        if (next == readSize) {
+            // a bound is reached, so the opposite direction is the only one left
+            growing = !growing;
+            next = clamp(growing ? readSize * 2L : readSize / 2L);
+        }
+        readSize = next;
+
+        windowBytes = 0;
+        windowNanos = 0;
+        windowReads = 0;
+    }
+
+    private int clamp(final long size) {
+        return (int) Math.max(minReadSize, Math.min(maxReadSize, size));
+    }
+
+}
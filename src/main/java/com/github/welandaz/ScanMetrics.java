@@ -0,0 +1,281 @@
+package com.github.welandaz;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * Live metrics of a single walk. Counters are updated from the walking and hashing threads without locking,
+ * and can be read at any time, e.g. from {@link MetricsListener#progress(ScanMetrics)} or via JMX.
+ * <p>
+ * Read time is the time spent waiting for reads of buffered files, and for page faults of memory-mapped files,
+ * which are loaded window by window before they are digested, when metrics are collected. Sink time is the time
+ * spent in the consumer of hashes, including waiting for the output to be written
+ */
+public final class ScanMetrics implements ScanMetricsMXBean {
+
+    static final int SLOWEST_FILES = 10;
+
+    private final MetricsListener listener;
+    private final long startTime = System.nanoTime();
+    private volatile long endTime;
+
+    private final LongAdder filesHashed = new LongAdder();
+    private final LongAdder filesReused = new LongAdder();
+    private final LongAdder directoriesHashed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder digestNanos = new LongAdder();
+    private final LongAdder sinkNanos = new LongAdder();
+    private final AtomicInteger pendingEntries = new AtomicInteger();
+    private final AtomicInteger maxPendingEntries = new AtomicInteger();
+
+    private final LatencyHistogram fileLatency = new LatencyHistogram();
+    private final LatencyHistogram directoryLatency = new LatencyHistogram();
+    private final LatencyHistogram sinkLatency = new LatencyHistogram();
+
+    private final PriorityQueue<SlowFile> slowest = new PriorityQueue<>(SLOWEST_FILES + 1,
+            (first, second) -> Long.compare(first.nanos, second.nanos));
+    private volatile long slowestThreshold;
+
+    ScanMetrics(final MetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return - distribution of times spent on reading and hashing single files
+     */
+    @Nonnull
+    public LatencyHistogram fileLatency() {
+        return fileLatency;
+    }
+
+    /**
+     * @return - distribution of times spent on folding hashes of children into directory hashes
+     */
+    @Nonnull
+    public LatencyHistogram directoryLatency() {
+        return directoryLatency;
+    }
+
+    /**
+     * @return - distribution of times spent in the consumer of hashes per entry
+     */
+    @Nonnull
+    public LatencyHistogram sinkLatency() {
+        return sinkLatency;
+    }
+
+    /**
+     * @return - files, which took the longest to hash, the slowest first
+     */
+    @Nonnull
+    public List<SlowFile> slowestFiles() {
+        final List<SlowFile> files;
+        synchronized (slowest) {
+            files = new ArrayList<>(slowest);
+        }
+        files.sort((first, second) -> Long.compare(second.nanos, first.nanos));
+
+        return files;
+    }
+
+    @Override
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    @Override
+    public long getFilesReused() {
+        return filesReused.sum();
+    }
+
+    @Override
+    public long getDirectoriesHashed() {
+        return directoriesHashed.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getReadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readNanos.sum());
+    }
+
+    @Override
+    public long getDigestMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(digestNanos.sum());
+    }
+
+    @Override
+    public long getSinkMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sinkNanos.sum());
+    }
+
+    @Override
+    public int getPendingEntries() {
+        return pendingEntries.get();
+    }
+
+    @Override
+    public int getMaxPendingEntries() {
+        return maxPendingEntries.get();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return (getFilesHashed() + getFilesReused()) * 1e9 / Math.max(elapsedNanos(), 1);
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytesRead() * 1e9 / Math.max(elapsedNanos(), 1);
+    }
+
+    @Override
+    public long getFileLatencyMedianMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(fileLatency.percentile(50));
+    }
+
+    @Override
+    public long getFileLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(fileLatency.percentile(99));
+    }
+
+    @Override
+    public String[] getSlowestFiles() {
+        return slowestFiles().stream().map(SlowFile::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public String toString() {
+        return format("files hashed: %d, files reused: %d, directories: %d, bytes read: %d, elapsed: %d ms",
+                getFilesHashed(), getFilesReused(), getDirectoriesHashed(), getBytesRead(), getElapsedMillis());
+    }
+
+    void fileHashed(final Path file, final long bytes, final long nanos) {
+        filesHashed.increment();
+        bytesRead.add(bytes);
+        fileLatency.record(nanos);
+        if (nanos > slowestThreshold) {
+            synchronized (slowest) {
+                slowest.add(new SlowFile(file, nanos));
+                if (slowest.size() > SLOWEST_FILES) {
+                    slowest.poll();
+                    slowestThreshold = slowest.peek().nanos;
+                }
+            }
+        }
+
+        listener.fileHashed(file, bytes, nanos);
+    }
+
+    void fileReused() {
+        filesReused.increment();
+    }
+
+    void directoryHashed(final long nanos) {
+        directoriesHashed.increment();
+        directoryLatency.record(nanos);
+    }
+
+    /**
+     * Records time of a read, which started at the specified time
+     *
+     * @return - current time, i.e. the start of the next phase
+     */
+    long read(final long since) {
+        final long now = System.nanoTime();
+        readNanos.add(now - since);
+
+        return now;
+    }
+
+    /**
+     * Records time of a digest update, which started at the specified time
+     *
+     * @return - current time, i.e. the start of the next phase
+     */
+    long digested(final long since) {
+        final long now = System.nanoTime();
+        digestNanos.add(now - since);
+
+        return now;
+    }
+
+    void sink(final long since) {
+        final long nanos = System.nanoTime() - since;
+        sinkNanos.add(nanos);
+        sinkLatency.record(nanos);
+    }
+
+    void pending(final int entries) {
+        pendingEntries.set(entries);
+        maxPendingEntries.accumulateAndGet(entries, Math::max);
+    }
+
+    void progress() {
+        listener.progress(this);
+    }
+
+    void completed() {
+        endTime = System.nanoTime();
+        listener.completed(this);
+    }
+
+    private long elapsedNanos() {
+        final long end = endTime;
+
+        return (end == 0 ? System.nanoTime() : end) - startTime;
+    }
+
+    /**
+     * File, which took long to hash
+     */
+    public static final class SlowFile {
+
+        private final Path path;
+        private final long nanos;
+
+        private SlowFile(final Path path, final long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return - path of the file
+         */
+        @Nonnull
+        public Path path() {
+            return path;
+        }
+
+        /**
+         * @return - time spent on reading and hashing the file in nanoseconds
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return format("%s: %.3f ms", path, nanos / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.github.welandaz;
+
+/**
+ * Management interface of {@link ScanMetrics}, registered by {@link HashProducer#mbean(String)}
+ */
+public interface ScanMetricsMXBean {
+
+    long getFilesHashed();
+
+    long getFilesReused();
+
+    long getDirectoriesHashed();
+
+    long getBytesRead();
+
+    long getReadMillis();
+
+    long getDigestMillis();
+
+    long getSinkMillis();
+
+    int getPendingEntries();
+
+    int getMaxPendingEntries();
+
+    long getElapsedMillis();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    long getFileLatencyMedianMicros();
+
+    long getFileLatencyP99Micros();
+
+    String[] getSlowestFiles();
+
+}
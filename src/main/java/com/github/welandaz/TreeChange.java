@@ -0,0 +1,62 @@
+package com.github.welandaz;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single batch of changes of a watched tree, published by {@link HashWatcher}
+ */
+public final class TreeChange {
+
+    private final List<HashEntry> changed;
+    private final List<Path> removed;
+    private final HashEntry root;
+    private final boolean fullRescan;
+
+    TreeChange(final List<HashEntry> changed, final List<Path> removed, final HashEntry root, final boolean fullRescan) {
+        this.changed = Collections.unmodifiableList(changed);
+        this.removed = Collections.unmodifiableList(removed);
+        this.root = root;
+        this.fullRescan = fullRescan;
+    }
+
+    /**
+     * @return - added entries and entries with a new hash, including their ancestor directories, in path order
+     */
+    @Nonnull
+    public List<HashEntry> changed() {
+        return changed;
+    }
+
+    /**
+     * @return - paths of removed entries in path order
+     */
+    @Nonnull
+    public List<Path> removed() {
+        return removed;
+    }
+
+    /**
+     * @return - new hash of the input, or null if it has no files left
+     */
+    @Nullable
+    public HashEntry root() {
+        return root;
+    }
+
+    /**
+     * @return - true, if events were lost and the change was found by walking the whole tree again
+     */
+    public boolean isFullRescan() {
+        return fullRescan;
+    }
+
+    @Override
+    public String toString() {
+        return "changed: " + changed.size() + ", removed: " + removed.size() + ", root: " + root;
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.github.welandaz;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Compares hashes of a live tree, passed in walk order, with a {@link Manifest} of an older snapshot.
+ * <p>
+ * Every live entry is looked up in the manifest. Since a directory always follows its children, paths of
+ * the visited children are collected until the directory itself arrives, and the children of the directory
+ * in the manifest, which were not visited, are reported as removed along with their subtrees.
+ * Only children of directories, which are still being visited, are kept in memory
+ */
+final class TreeDiff implements Consumer<HashEntry> {
+
+    private final Path root;
+    private final Manifest previous;
+    private final DiffListener listener;
+    private final Map<Path, Set<String>> visited = new HashMap<>();
+    private boolean rootVisited;
+
+    TreeDiff(final Path root, final Manifest previous, final DiffListener listener) {
+        this.root = root;
+        this.previous = previous;
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(final HashEntry entry) {
+        final byte[] key = Manifest.key(root, entry.path());
+        final String path = new String(key, StandardCharsets.UTF_8);
+        if (entry.path().equals(root)) {
+            rootVisited = true;
+        } else {
+            visited.computeIfAbsent(entry.path().getParent(), parent -> new HashSet<>()).add(path);
+        }
+
+        final ManifestEntry after = ManifestEntry.of(key, entry);
+        final ManifestEntry before = previous.get(key);
+        if (before == null) {
+            listener.added(after);
+        } else if (before.isDirectory() != after.isDirectory() || !Arrays.equals(before.digest(), after.digest())) {
+            listener.modified(before, after);
+            if (before.isDirectory() && !after.isDirectory()) {
+                removedSubtree(path);
+            }
+        }
+
+        if (entry.isDirectory()) {
+            // children of a pruned directory were not visited, so there is nothing to compare
+            final Set<String> children = visited.remove(entry.path());
+            if (children != null) {
+                removedChildren(path, children);
+            }
+        }
+    }
+
+    /**
+     * Reports entries of the manifest, which were not visited, because the whole tree is empty or doesn't exist
+     */
+    void finish() {
+        if (!rootVisited) {
+            previous.forEach(listener::removed);
+        }
+    }
+
+    private void removedChildren(final String directory, final Set<String> children) {
+        final String prefix = prefix(directory);
+        Manifest.Cursor cursor = previous.seek(bytes(prefix));
+        while (cursor.hasNext()) {
+            final ManifestEntry entry = cursor.next();
+            final String path = entry.path();
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            if (path.length() == prefix.length()) {
+                continue;
+            }
+
+            final int separator = path.indexOf('/', prefix.length());
+            if (separator >= 0) {
+                // '0' follows '/', so this skips the rest of the subtree of a child directory
+                cursor = previous.seek(bytes(path.substring(0, separator) + '0'));
+            } else if (!children.contains(path)) {
+                listener.removed(entry);
+                if (entry.isDirectory()) {
+                    removedSubtree(path);
+                }
+            }
+        }
+    }
+
+    private void removedSubtree(final String directory) {
+        final String prefix = prefix(directory);
+        final Manifest.Cursor cursor = previous.seek(bytes(prefix));
+        while (cursor.hasNext()) {
+            final ManifestEntry entry = cursor.next();
+            final String path = entry.path();
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            if (path.length() > prefix.length()) {
+                listener.removed(entry);
+            }
+        }
+    }
+
+    private static String prefix(final String directory) {
+        return directory.isEmpty() ? "" : directory + '/';
+    }
+
+    private static byte[] bytes(final String path) {
+        return path.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
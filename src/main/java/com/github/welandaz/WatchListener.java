@@ -0,0 +1,28 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+
+/**
+ * Receives changes of a tree, watched by {@link HashProducer#watch(WatchListener)}. Methods are called
+ * on the watching thread, so a slow listener delays processing of further events, but no event is lost
+ */
+public interface WatchListener {
+
+    /**
+     * Called once a batch of file system events is applied and has changed at least one hash
+     *
+     * @param change - changed and removed entries along with the new hash of the input
+     */
+    void changed(TreeChange change);
+
+    /**
+     * Called if events can't be applied, e.g. a directory can't be read. The whole tree is walked again right away,
+     * and after a pause, while walks keep failing. Exceptions thrown by the listener don't stop the watcher,
+     * they are passed to the uncaught exception handler of the watching thread
+     *
+     * @param e - error, which occurred while applying events
+     */
+    default void failed(final IOException e) {
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.github.welandaz.digest;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the BLAKE3 cryptographic hash function in its default hashing mode,
+ * exposed as a {@link MessageDigest} with 32 bytes of output.
+ * <p>
+ * Input is split into chunks of 1KB, which are compressed one by one and merged into a binary tree
+ * of chaining values. Only the right edge of the tree is kept, so memory usage doesn't depend on the input size
+ */
+public final class Blake3Digest extends MessageDigest implements Cloneable {
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+    private static final int[] PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+
+    private static final int BLOCK_LENGTH = 64;
+    private static final int CHUNK_LENGTH = 1024;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int MAX_DEPTH = 54;
+
+    private int[] chainingValue = new int[8];
+    private byte[] block = new byte[BLOCK_LENGTH];
+    private int blockLength;
+    private int blocksCompressed;
+    private long chunkCounter;
+    private int[][] stack = new int[MAX_DEPTH][];
+    private int stackSize;
+
+    private int[] blockWords = new int[16];
+    private int[] state = new int[16];
+    private int[] message = new int[16];
+    private int[] permuted = new int[16];
+
+    public Blake3Digest() {
+        super("BLAKE3");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int length) {
+        int position = offset;
+        final int end = offset + length;
+
+        while (position < end) {
+            if (blockLength == BLOCK_LENGTH) {
+                if (blocksCompressed == CHUNK_LENGTH / BLOCK_LENGTH - 1) {
+                    finishChunk();
+                } else {
+                    words(block, 0, blockWords);
+                    compress(chainingValue, blockWords, chunkCounter, BLOCK_LENGTH, chunkFlags());
+                    System.arraycopy(state, 0, chainingValue, 0, 8);
+                    blocksCompressed++;
+                    blockLength = 0;
+                }
+            }
+
+            if (blockLength == 0 && blocksCompressed > 0 && blocksCompressed < CHUNK_LENGTH / BLOCK_LENGTH - 1) {
+                while (end - position > BLOCK_LENGTH && blocksCompressed < CHUNK_LENGTH / BLOCK_LENGTH - 1) {
+                    words(input, position, blockWords);
+                    compress(chainingValue, blockWords, chunkCounter, BLOCK_LENGTH, 0);
+                    System.arraycopy(state, 0, chainingValue, 0, 8);
+                    blocksCompressed++;
+                    position += BLOCK_LENGTH;
+                }
+            }
+
+            final int count = Math.min(BLOCK_LENGTH - blockLength, end - position);
+            System.arraycopy(input, position, block, blockLength, count);
+            blockLength += count;
+            position += count;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        Arrays.fill(block, blockLength, BLOCK_LENGTH, (byte) 0);
+        words(block, 0, blockWords);
+
+        int[] inputChainingValue = chainingValue;
+        int length = blockLength;
+        int flags = chunkFlags() | CHUNK_END;
+        long counter = chunkCounter;
+
+        for (int i = stackSize - 1; i >= 0; i--) {
+            compress(inputChainingValue, blockWords, counter, length, flags);
+
+            System.arraycopy(stack[i], 0, blockWords, 0, 8);
+            System.arraycopy(state, 0, blockWords, 8, 8);
+            inputChainingValue = IV;
+            length = BLOCK_LENGTH;
+            flags = PARENT;
+            counter = 0;
+        }
+        compress(inputChainingValue, blockWords, counter, length, flags | ROOT);
+
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < 8; i++) {
+            final int word = state[i];
+            digest[i * 4] = (byte) word;
+            digest[i * 4 + 1] = (byte) (word >>> 8);
+            digest[i * 4 + 2] = (byte) (word >>> 16);
+            digest[i * 4 + 3] = (byte) (word >>> 24);
+        }
+
+        engineReset();
+
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, chainingValue, 0, 8);
+        blockLength = 0;
+        blocksCompressed = 0;
+        chunkCounter = 0;
+        stackSize = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Blake3Digest copy = (Blake3Digest) super.clone();
+        copy.chainingValue = chainingValue.clone();
+        copy.block = block.clone();
+        copy.stack = new int[MAX_DEPTH][];
+        for (int i = 0; i < stackSize; i++) {
+            copy.stack[i] = stack[i].clone();
+        }
+        copy.blockWords = new int[16];
+        copy.state = new int[16];
+        copy.message = new int[16];
+        copy.permuted = new int[16];
+
+        return copy;
+    }
+
+    private int chunkFlags() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    /**
+     * Compresses the last block of a full chunk, and merges the chaining value of the chunk
+     * with the completed subtrees on the right edge of the tree
+     */
+    private void finishChunk() {
+        words(block, 0, blockWords);
+        compress(chainingValue, blockWords, chunkCounter, BLOCK_LENGTH, chunkFlags() | CHUNK_END);
+
+        int[] chunkValue = new int[8];
+        System.arraycopy(state, 0, chunkValue, 0, 8);
+
+        long totalChunks = chunkCounter + 1;
+        while ((totalChunks & 1) == 0) {
+            System.arraycopy(stack[--stackSize], 0, blockWords, 0, 8);
+            System.arraycopy(chunkValue, 0, blockWords, 8, 8);
+            compress(IV, blockWords, 0, BLOCK_LENGTH, PARENT);
+            chunkValue = new int[8];
+            System.arraycopy(state, 0, chunkValue, 0, 8);
+            totalChunks >>= 1;
+        }
+        stack[stackSize++] = chunkValue;
+
+        chunkCounter++;
+        System.arraycopy(IV, 0, chainingValue, 0, 8);
+        blocksCompressed = 0;
+        blockLength = 0;
+    }
+
+    /**
+     * Compression function, the first 8 words of the resulting {@link #state} are the new chaining value
+     */
+    private void compress(final int[] chainingValue, final int[] words, final long counter, final int length, final int flags) {
+        final int[] s = state;
+        System.arraycopy(chainingValue, 0, s, 0, 8);
+        s[8] = IV[0];
+        s[9] = IV[1];
+        s[10] = IV[2];
+        s[11] = IV[3];
+        s[12] = (int) counter;
+        s[13] = (int) (counter >>> 32);
+        s[14] = length;
+        s[15] = flags;
+
+        int[] m = message;
+        int[] p = permuted;
+        System.arraycopy(words, 0, m, 0, 16);
+        for (int round = 0; round < 7; round++) {
+            g(s, 0, 4, 8, 12, m[0], m[1]);
+            g(s, 1, 5, 9, 13, m[2], m[3]);
+            g(s, 2, 6, 10, 14, m[4], m[5]);
+            g(s, 3, 7, 11, 15, m[6], m[7]);
+            g(s, 0, 5, 10, 15, m[8], m[9]);
+            g(s, 1, 6, 11, 12, m[10], m[11]);
+            g(s, 2, 7, 8, 13, m[12], m[13]);
+            g(s, 3, 4, 9, 14, m[14], m[15]);
+
+            if (round < 6) {
+                for (int i = 0; i < 16; i++) {
+                    p[i] = m[PERMUTATION[i]];
+                }
+                final int[] tmp = m;
+                m = p;
+                p = tmp;
+            }
+        }
+
+        for (int i = 0; i < 8; i++) {
+            s[i] ^= s[i + 8];
+            s[i + 8] ^= chainingValue[i];
+        }
+    }
+
+    private static void g(final int[] s, final int a, final int b, final int c, final int d, final int x, final int y) {
+        s[a] = s[a] + s[b] + x;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 16);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 12);
+        s[a] = s[a] + s[b] + y;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 8);
+        s[c] = s[c] + s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 7);
+    }
+
+    private static void words(final byte[] bytes, final int offset, final int[] words) {
+        for (int i = 0; i < 16; i++) {
+            final int position = offset + i * 4;
+            words[i] = (bytes[position] & 0xFF)
+                    | (bytes[position + 1] & 0xFF) << 8
+                    | (bytes[position + 2] & 0xFF) << 16
+                    | (bytes[position + 3] & 0xFF) << 24;
+        }
+    }
+
+}
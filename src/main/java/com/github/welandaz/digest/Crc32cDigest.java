@@ -0,0 +1,107 @@
+package com.github.welandaz.digest;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure Java implementation of CRC-32C (Castagnoli), exposed as a {@link MessageDigest}.
+ * It processes 8 bytes per step using sliced lookup tables. The digest is the 4 bytes of the checksum
+ * in big-endian order, i.e. the same as its usual hexadecimal representation
+ */
+public final class Crc32cDigest extends MessageDigest implements Cloneable {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = createTables();
+
+    private int crc;
+
+    public Crc32cDigest() {
+        super("CRC32C");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 4;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ input) & 0xFF];
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int length) {
+        final int[] t0 = TABLES[0];
+        final int[] t1 = TABLES[1];
+        final int[] t2 = TABLES[2];
+        final int[] t3 = TABLES[3];
+        final int[] t4 = TABLES[4];
+        final int[] t5 = TABLES[5];
+        final int[] t6 = TABLES[6];
+        final int[] t7 = TABLES[7];
+
+        int value = crc;
+        int position = offset;
+        final int end = offset + length;
+
+        for (; position <= end - 8; position += 8) {
+            final int low = value
+                    ^ ((input[position] & 0xFF)
+                    | (input[position + 1] & 0xFF) << 8
+                    | (input[position + 2] & 0xFF) << 16
+                    | (input[position + 3] & 0xFF) << 24);
+            value = t7[low & 0xFF]
+                    ^ t6[(low >>> 8) & 0xFF]
+                    ^ t5[(low >>> 16) & 0xFF]
+                    ^ t4[low >>> 24]
+                    ^ t3[input[position + 4] & 0xFF]
+                    ^ t2[input[position + 5] & 0xFF]
+                    ^ t1[input[position + 6] & 0xFF]
+                    ^ t0[input[position + 7] & 0xFF];
+        }
+        for (; position < end; position++) {
+            value = (value >>> 8) ^ t0[(value ^ input[position]) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final int value = ~crc;
+
+        engineReset();
+
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    @Override
+    protected void engineReset() {
+        crc = 0xFFFFFFFF;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+
+    private static int[][] createTables() {
+        final int[][] tables = new int[8][256];
+        for (int i = 0; i < 256; i++) {
+            int value = i;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value & 1) != 0 ? (value >>> 1) ^ POLYNOMIAL : value >>> 1;
+            }
+            tables[0][i] = value;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int table = 1; table < 8; table++) {
+                final int previous = tables[table - 1][i];
+                tables[table][i] = (previous >>> 8) ^ tables[0][previous & 0xFF];
+            }
+        }
+
+        return tables;
+    }
+
+}
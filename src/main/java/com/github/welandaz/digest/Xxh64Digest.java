@@ -0,0 +1,183 @@
+package com.github.welandaz.digest;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure Java implementation of the non-cryptographic XXH64 hash function, exposed as a {@link MessageDigest}.
+ * The digest is the 8 bytes of the hash in big-endian order, i.e. its canonical representation
+ */
+public final class Xxh64Digest extends MessageDigest implements Cloneable {
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE_LENGTH = 32;
+
+    private final long seed;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long totalLength;
+    private byte[] buffer = new byte[STRIPE_LENGTH];
+    private int bufferSize;
+
+    /**
+     * Creates a digest with zero seed
+     */
+    public Xxh64Digest() {
+        this(0);
+    }
+
+    /**
+     * Creates a digest with the specified seed
+     *
+     * @param seed - seed of the hash function
+     */
+    public Xxh64Digest(final long seed) {
+        super("XXH64");
+        this.seed = seed;
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int length) {
+        totalLength += length;
+
+        int position = offset;
+        final int end = offset + length;
+
+        if (bufferSize > 0) {
+            final int count = Math.min(STRIPE_LENGTH - bufferSize, length);
+            System.arraycopy(input, position, buffer, bufferSize, count);
+            bufferSize += count;
+            position += count;
+            if (bufferSize < STRIPE_LENGTH) {
+                return;
+            }
+            stripe(buffer, 0);
+            bufferSize = 0;
+        }
+
+        for (; position <= end - STRIPE_LENGTH; position += STRIPE_LENGTH) {
+            stripe(input, position);
+        }
+
+        if (position < end) {
+            bufferSize = end - position;
+            System.arraycopy(input, position, buffer, 0, bufferSize);
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long hash;
+        if (totalLength >= STRIPE_LENGTH) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME64_5;
+        }
+        hash += totalLength;
+
+        int position = 0;
+        for (; position + 8 <= bufferSize; position += 8) {
+            hash ^= round(0, getLong(buffer, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (position + 4 <= bufferSize) {
+            hash ^= (getInt(buffer, position) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            position += 4;
+        }
+        for (; position < bufferSize; position++) {
+            hash ^= (buffer[position] & 0xFF) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+
+        engineReset();
+
+        final byte[] digest = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            digest[i] = (byte) hash;
+            hash >>>= 8;
+        }
+
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = seed + PRIME64_1 + PRIME64_2;
+        v2 = seed + PRIME64_2;
+        v3 = seed;
+        v4 = seed - PRIME64_1;
+        totalLength = 0;
+        bufferSize = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Xxh64Digest copy = (Xxh64Digest) super.clone();
+        copy.buffer = buffer.clone();
+
+        return copy;
+    }
+
+    private void stripe(final byte[] input, final int offset) {
+        v1 = round(v1, getLong(input, offset));
+        v2 = round(v2, getLong(input, offset + 8));
+        v3 = round(v3, getLong(input, offset + 16));
+        v4 = round(v4, getLong(input, offset + 24));
+    }
+
+    private static long round(final long accumulator, final long input) {
+        return Long.rotateLeft(accumulator + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    private static long mergeRound(final long accumulator, final long value) {
+        return (accumulator ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long getLong(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static int getInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+}
@@ -2,13 +2,14 @@ package com.github.welandaz.utils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 
 /**
  *  Utility class for working with strings
  */
 public final class StringUtils {
 
-    private static char[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final char[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
     private StringUtils() {
     }
@@ -37,4 +38,75 @@ public final class StringUtils {
         return new String(buffer);
     }
 
+    /**
+     * Writes the hexadecimal representation of a byte array to the buffer as ASCII bytes, without creating
+     * intermediate strings. The buffer must have at least {@code bytes.length * 2} bytes remaining
+     *
+     * @param buffer - buffer to write to
+     * @param bytes  - an array of bytes to transform
+     */
+    public static void putHex(@Nonnull final ByteBuffer buffer, @Nonnull final byte[] bytes) {
+        if (buffer.hasArray()) {
+            final byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + buffer.position();
+            for (final byte b : bytes) {
+                final int masked = b & 0xFF;
+                array[offset++] = (byte) HEX[masked >> 4];
+                array[offset++] = (byte) HEX[masked & 0x0F];
+            }
+            buffer.position(offset - buffer.arrayOffset());
+        } else {
+            for (final byte b : bytes) {
+                final int masked = b & 0xFF;
+                buffer.put((byte) HEX[masked >> 4]).put((byte) HEX[masked & 0x0F]);
+            }
+        }
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the characters to the buffer, without creating intermediate arrays.
+     * Unpaired surrogates are replaced with '?', the same way as {@link String#getBytes(java.nio.charset.Charset)} does.
+     * The buffer must have at least {@code chars.length() * 3} bytes remaining
+     *
+     * @param buffer - buffer to write to
+     * @param chars  - characters to encode
+     */
+    public static void putUtf8(@Nonnull final ByteBuffer buffer, @Nonnull final CharSequence chars) {
+        if (!buffer.hasArray()) {
+            final byte[] bytes = new byte[chars.length() * 3];
+            buffer.put(bytes, 0, putUtf8(bytes, 0, chars));
+            return;
+        }
+
+        final int offset = buffer.arrayOffset() + buffer.position();
+        buffer.position(putUtf8(buffer.array(), offset, chars) - buffer.arrayOffset());
+    }
+
+    private static int putUtf8(final byte[] array, int offset, final CharSequence chars) {
+        final int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                array[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                array[offset++] = (byte) (0xC0 | c >> 6);
+                array[offset++] = (byte) (0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                array[offset++] = (byte) (0xE0 | c >> 12);
+                array[offset++] = (byte) (0x80 | c >> 6 & 0x3F);
+                array[offset++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                array[offset++] = (byte) (0xF0 | codePoint >> 18);
+                array[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                array[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                array[offset++] = (byte) (0x80 | codePoint & 0x3F);
+            } else {
+                array[offset++] = (byte) '?';
+            }
+        }
+
+        return offset;
+    }
+
 }
@@ -1,14 +1,41 @@
 package com.github.welandaz;
 
 import com.github.welandaz.utils.FileUtils;
+import com.github.welandaz.utils.StringUtils;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -117,4 +144,810 @@ public class HashProducerTest {
                 .containsEntry(input.resolve("faz/fileD.dat"), "9dd88c920d86ac24112eb692e87b047bb6e69cd413593b009af62a29a71daa68f094dd3340976ae9b8e5d8e5d66d964179409c049103f91f3ccba80d9de63b7a")
                 .containsEntry(input.resolve("faz/fileE.dat"), "40c9964826072dbebe00ea99db34a8c8268088738de8d2a9c02743d0eed36a018adf122bacd789cc569ba2f5f54c75191683e3f252486bf71a5824ae99e20017");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testShouldProduceSameHashesInParallel() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+        final Map<Path, String> hashes = HashProducer.path(input).parallelism(4).toMap();
+
+        assertThat(hashes).hasSize(expected.size()).isEqualTo(expected);
+
+        for (final Hash hash : Hash.values()) {
+            assertThat(HashProducer.path(input).hash(hash).parallelism(4).toMap())
+                    .as(hash.name())
+                    .isEqualTo(HashProducer.path(input).hash(hash).toMap());
+        }
+    }
+
+    @Test
+    public void testShouldWriteSameFileInParallel() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path sequential = TMP_ROOT.resolve("sequential.txt");
+        final Path parallel = TMP_ROOT.resolve("parallel.txt");
+
+        HashProducer.path(input).toFile(sequential);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            HashProducer.path(input).executor(executor).toFile(parallel);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(Files.readAllBytes(parallel)).isEqualTo(Files.readAllBytes(sequential));
+    }
+
+    @Test
+    public void testShouldProduceSameHashesFromConcurrentProducers() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+
+        final Map<Path, String> expected = HashProducer.path(input).hash(Hash.SHA256).toMap();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Map<Path, String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> HashProducer.path(input).hash(Hash.SHA256).toMap()));
+            }
+            for (final Future<Map<Path, String>> result : results) {
+                assertThat(result.get()).isEqualTo(expected);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShouldProduceSameHashesForMappedAndBufferedReads() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+
+        assertThat(HashProducer.path(input).mappedThreshold(0).toMap()).isEqualTo(expected);
+        assertThat(HashProducer.path(input).mappedThreshold(0).metrics(new MetricsListener() { }).toMap()).isEqualTo(expected);
+        assertThat(HashProducer.path(input).mappedThreshold(64 * 1024).byteArraySize(1000).toMap()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testShouldProduceSameHashesWhenReadingOnIoThreads() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final LatencyFileSystem fileSystem = new LatencyFileSystem(input.getFileSystem(), 2);
+
+        final Map<String, String> expected = new HashMap<>();
+        HashProducer.path(input).toMap().forEach((path, hash) -> expected.put(path.toString(), hash));
+
+        final Map<String, String> hashes = new HashMap<>();
+        HashProducer.path(fileSystem.wrap(input)).ioThreads(16).maxInFlightFiles(8).toMap()
+                .forEach((path, hash) -> hashes.put(path.toString(), hash));
+
+        assertThat(hashes).isEqualTo(expected);
+        assertThat(fileSystem.peakOpening()).isBetween(2, 8);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testShouldReleaseBuffersOfFailedDigestsOnIoThreads() throws Exception {
+        final Path file = FileUtils.createPath(TMP_ROOT, "file");
+        FileUtils.write(file, new byte[64 * 1024]);
+
+        try (final ReadPipeline pipeline = new ReadPipeline(Hash.perThread(new ConstantDigest(new IllegalStateException("failed update"))), 1024, 1,
+                Executors.newSingleThreadExecutor(), null)) {
+            for (int i = 0; i < 8; i++) {
+                assertThatThrownBy(pipeline.hash(file)::get).hasRootCauseInstanceOf(IllegalStateException.class);
+            }
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testShouldStopReadingFileOfCancelledHash() throws Exception {
+        final Path file = FileUtils.createPath(TMP_ROOT, "file");
+        FileUtils.write(file, new byte[1024 * 1024]);
+
+        final AtomicInteger reads = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        // digests are slow, so the reader waits for free buffers and is still reading when the walk is abandoned
+        final Executor digesters = task -> {
+            reads.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            });
+        };
+        try (final ReadPipeline pipeline = new ReadPipeline(Hash.SHA256::messageDigest, 1024, 1, digesters, null)) {
+            final Future<byte[]> hash = pipeline.hash(file, digest -> {
+            });
+            while (reads.get() < 10) {
+                Thread.sleep(1);
+            }
+            hash.cancel(true);
+
+            Thread.sleep(200);
+            final int cancelled = reads.get();
+            Thread.sleep(200);
+
+            assertThat(reads.get()).isEqualTo(cancelled).isLessThan(1024);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShouldProduceSameHashesWithAdaptiveReads() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        FileUtils.write(FileUtils.createPath(input, "empty"), new byte[0]);
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+
+        assertThat(HashProducer.path(input).adaptiveReads(1024, 64 * 1024).toMap()).isEqualTo(expected);
+        assertThat(HashProducer.path(input).adaptiveReads(4096, 4096).parallelism(4).toMap()).isEqualTo(expected);
+        assertThat(HashProducer.path(input).adaptiveReads(512, 1024 * 1024).treeHash(10000).toMap())
+                .isEqualTo(HashProducer.path(input).treeHash(10000).toMap());
+        assertThatThrownBy(() -> HashProducer.path(input).adaptiveReads(4096, 1024))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testShouldLearnReadSizeWithBestThroughput() {
+        final int best = 256 * 1024;
+        final ReadSizer sizer = new ReadSizer(4096, 16 * 1024 * 1024, 8192);
+
+        for (int i = 0; i < ReadSizer.WINDOW_READS * 100; i++) {
+            final int size = sizer.readSize();
+            // throughput in bytes per nanosecond halves with every doubling away from the best size
+            final double throughput = 1.0 / (1 << Math.abs(Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(best)));
+            sizer.record(size, size, (long) (size / throughput));
+        }
+
+        assertThat(sizer.readSize()).isBetween(best / 2, best * 2);
+        assertThat(sizer.buffer(100).limit()).isEqualTo(101);
+        assertThat(sizer.buffer(Long.MAX_VALUE).limit()).isEqualTo(sizer.readSize());
+    }
+
+    @Test
+    public void testShouldReuseCachedHashesOfUnchangedFiles() throws IOException {
+        final Path input = backdate(createTree(TMP_ROOT.resolve("input")));
+        final Path cache = TMP_ROOT.resolve("cache.bin");
+        final Path file = input.resolve("dir1/sub1/file1");
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+
+        assertThat(HashProducer.path(input).cache(cache).toMap()).isEqualTo(expected);
+        assertThat(cache).exists();
+
+        final FileTime modifiedTime = Files.getLastModifiedTime(file);
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[0]++;
+        Files.write(file, bytes);
+        Files.setLastModifiedTime(file, modifiedTime);
+
+        assertThat(HashProducer.path(input).cache(cache).toMap()).isEqualTo(expected);
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedTime.toMillis() + 1000));
+
+        final Map<Path, String> hashes = HashProducer.path(input).cache(cache).parallelism(2).toMap();
+
+        assertThat(hashes).isEqualTo(HashProducer.path(input).toMap());
+        assertThat(hashes.get(file)).isNotEqualTo(expected.get(file));
+    }
+
+    @Test
+    public void testShouldIgnoreCorruptCacheAndKeepEntriesOutsideOfShard() throws IOException {
+        final Path input = backdate(createTree(TMP_ROOT.resolve("input")));
+        final Path cache = TMP_ROOT.resolve("cache.bin");
+        final Path recent = input.resolve("dir0/sub1/file1");
+        Files.setLastModifiedTime(recent, FileTime.fromMillis(System.currentTimeMillis()));
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+
+        HashProducer.path(input).cache(cache).toMap();
+        final byte[] bytes = Files.readAllBytes(cache);
+        Files.write(cache, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThat(HashProducer.path(input).cache(cache).toMap()).isEqualTo(expected);
+        assertThat(Files.size(cache)).isEqualTo(bytes.length);
+
+        for (int shard = 0; shard < 3; shard++) {
+            HashProducer.path(input).cache(cache).shard(shard, 3).toMap();
+        }
+        assertThat(Files.size(cache)).isEqualTo(bytes.length);
+
+        // files with unchanged attributes, but different content, reveal which hashes were taken from the cache
+        for (final Path file : new Path[]{recent, input.resolve("dir5/sub1/file4")}) {
+            final FileTime modifiedTime = Files.getLastModifiedTime(file);
+            final byte[] content = Files.readAllBytes(file);
+            content[0]++;
+            Files.write(file, content);
+            Files.setLastModifiedTime(file, modifiedTime);
+        }
+
+        final Map<Path, String> hashes = HashProducer.path(input).cache(cache).toMap();
+
+        assertThat(hashes.get(input.resolve("dir5/sub1/file4"))).isEqualTo(expected.get(input.resolve("dir5/sub1/file4")));
+        assertThat(hashes.get(recent)).isNotEqualTo(expected.get(recent));
+    }
+
+    @Test
+    public void testShouldStreamSameHashesInWalkOrder() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+
+        final Map<Path, String> expected = HashProducer.path(input).toMap();
+
+        final List<HashEntry> entries = new ArrayList<>();
+        HashProducer.path(input).parallelism(2).consumeHashes(entries::add);
+
+        assertThat(entries).extracting(HashEntry::path).containsOnlyElementsOf(expected.keySet()).hasSize(expected.size());
+        assertThat(entries.get(entries.size() - 1).path()).isEqualTo(input);
+        assertThat(entries.get(entries.size() - 1).isDirectory()).isTrue();
+
+        try (final Stream<HashEntry> stream = HashProducer.path(input).stream()) {
+            assertThat(stream.collect(Collectors.toMap(HashEntry::path, HashEntry::hash))).isEqualTo(expected);
+        }
+        try (final Stream<HashEntry> stream = HashProducer.path(input).stream()) {
+            assertThat(stream.limit(3).count()).isEqualTo(3);
+        }
+    }
+
+    @Test(timeOut = 30_000)
+    public void testShouldEndStreamOnErrorsAndStopAbandonedWalks() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+
+        assertThatThrownBy(() -> HashProducer.path(input).hash(new ConstantDigest(new AssertionError("failed update"))).stream().count())
+                .isInstanceOf(AssertionError.class);
+
+        takeFirstAndAbandon(input);
+        while (Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals("filehash-stream"))) {
+            System.gc();
+            Thread.sleep(HashEntrySpliterator.ABANDON_CHECK_MILLIS);
+        }
+    }
+
+    @Test
+    public void testShouldProduceDirectoryHashFromRawDigestsWithBinaryScheme() throws Exception {
+        final Path fileA = FileUtils.createPath(TMP_ROOT.resolve("directory"), "fileA");
+        final Path fileB = FileUtils.createPath(TMP_ROOT.resolve("directory"), "fileB");
+
+        FileUtils.write(fileA, "some ordinary text to be written to fileA".getBytes());
+        FileUtils.write(fileB, "another ordinary text to be written to fileB".getBytes());
+
+        final Map<Path, String> legacy = HashProducer.path(fileA.getParent()).toMap();
+        final Map<Path, String> hashes = HashProducer.path(fileA.getParent()).directoryScheme(DirectoryScheme.BINARY_V2).toMap();
+
+        final MessageDigest messageDigest = MessageDigest.getInstance("SHA-512");
+        final byte[] digestA = messageDigest.digest(Files.readAllBytes(fileA));
+        final byte[] digestB = messageDigest.digest(Files.readAllBytes(fileB));
+        messageDigest.update(digestA);
+        messageDigest.update(digestB);
+
+        assertThat(hashes)
+                .containsEntry(fileA, legacy.get(fileA))
+                .containsEntry(fileB, legacy.get(fileB))
+                .containsEntry(fileA.getParent(), StringUtils.toHexString(messageDigest.digest()));
+        assertThat(hashes.get(fileA.getParent())).isNotEqualTo(legacy.get(fileA.getParent()));
+    }
+
+    @Test
+    public void testShouldHashChunksOfLargeFilesInTreeHashMode() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path file = input.resolve("dir2/sub2/file14");
+        final byte[] bytes = Files.readAllBytes(file);
+        final int chunkSize = 10000;
+
+        final MessageDigest messageDigest = MessageDigest.getInstance("SHA-512");
+        final MessageDigest rootDigest = MessageDigest.getInstance("SHA-512");
+        rootDigest.update(FileHasher.NODE);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            messageDigest.update(FileHasher.LEAF);
+            messageDigest.update(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            rootDigest.update(messageDigest.digest());
+        }
+        final Path small = input.resolve("dir0/sub1/file1");
+        messageDigest.update(FileHasher.LEAF);
+        messageDigest.update(Files.readAllBytes(small));
+
+        final Map<Path, String> hashes = HashProducer.path(input).treeHash(chunkSize).toMap();
+
+        assertThat(hashes).containsEntry(file, StringUtils.toHexString(rootDigest.digest()));
+        assertThat(hashes).containsEntry(small, StringUtils.toHexString(messageDigest.digest()));
+        assertThat(HashProducer.path(input).treeHash(chunkSize).parallelism(4).byteArraySize(3000).toMap()).isEqualTo(hashes);
+        assertThat(HashProducer.path(input).treeHash(chunkSize).parallelism(4).mappedThreshold(0).toMap()).isEqualTo(hashes);
+    }
+
+    @Test
+    public void testShouldNotCollideSmallFileOfChunkDigestsWithChunkedFileInTreeHashMode() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path large = input.resolve("dir2/sub2/file14");
+        final byte[] bytes = Files.readAllBytes(large);
+        final int chunkSize = 10000;
+
+        // a small file, which contains the node input of the large one, i.e. digests of its chunks
+        final ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        final MessageDigest messageDigest = MessageDigest.getInstance("SHA-512");
+        digests.write(FileHasher.NODE);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            messageDigest.update(FileHasher.LEAF);
+            messageDigest.update(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            digests.write(messageDigest.digest());
+        }
+        assertThat(digests.size()).isLessThanOrEqualTo(chunkSize);
+        final Path small = FileUtils.createPath(input, "digests");
+        FileUtils.write(small, digests.toByteArray());
+
+        final Map<Path, String> hashes = HashProducer.path(input).treeHash(chunkSize).toMap();
+
+        assertThat(hashes.get(small)).isNotEqualTo(hashes.get(large));
+    }
+
+    @Test
+    public void testShouldCollectMetrics() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final ObjectName name = new ObjectName("com.github.welandaz:type=ScanMetrics,name=test");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        final AtomicInteger filesHashed = new AtomicInteger();
+        final AtomicInteger progress = new AtomicInteger();
+        final AtomicReference<Object> liveFilesHashed = new AtomicReference<>();
+        final AtomicReference<ScanMetrics> completed = new AtomicReference<>();
+        final MetricsListener listener = new MetricsListener() {
+            @Override
+            public void fileHashed(final Path file, final long bytes, final long nanos) {
+                filesHashed.incrementAndGet();
+            }
+
+            @Override
+            public void progress(final ScanMetrics metrics) {
+                if (progress.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failed progress callback");
+                }
+            }
+
+            @Override
+            public void completed(final ScanMetrics metrics) {
+                completed.set(metrics);
+            }
+        };
+
+        HashProducer.path(input).parallelism(2).metrics(listener).progressInterval(Duration.ofMillis(5)).mbean(name.toString())
+                .consumeHashes(entry -> {
+                    try {
+                        if (entry.path().equals(input)) {
+                            liveFilesHashed.set(server.getAttribute(name, "FilesHashed"));
+                        }
+                        Thread.sleep(1);
+                    } catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+
+        final ScanMetrics metrics = completed.get();
+        assertThat(metrics).isNotNull();
+        assertThat(metrics.getFilesHashed()).isEqualTo(128).isEqualTo(filesHashed.get());
+        assertThat(metrics.getFilesReused()).isZero();
+        assertThat(metrics.getDirectoriesHashed()).isEqualTo(33);
+        assertThat(metrics.getBytesRead()).isEqualTo(127 * 128 / 2 * 1024);
+        assertThat(metrics.getMaxPendingEntries()).isPositive();
+        assertThat(metrics.getSinkMillis()).isGreaterThanOrEqualTo(161);
+        assertThat(metrics.fileLatency().count()).isEqualTo(128);
+        assertThat(metrics.directoryLatency().count()).isEqualTo(33);
+        assertThat(metrics.sinkLatency().count()).isEqualTo(161);
+        assertThat(metrics.slowestFiles()).hasSize(ScanMetrics.SLOWEST_FILES)
+                .isSortedAccordingTo((first, second) -> Long.compare(second.nanos(), first.nanos()));
+        assertThat(progress.get()).isGreaterThan(1);
+        assertThat(liveFilesHashed.get()).isEqualTo(128L);
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    public void testShouldFindDuplicateFiles() throws IOException {
+        final Path input = TMP_ROOT.resolve("input");
+        final byte[] large = new byte[20_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 7);
+        }
+        final byte[] middle = large.clone();
+        middle[large.length / 2]++;
+        final byte[] head = large.clone();
+        head[0]++;
+
+        FileUtils.write(FileUtils.createPath(input, "a/large"), large);
+        FileUtils.write(FileUtils.createPath(input, "b/large copy"), large);
+        FileUtils.write(FileUtils.createPath(input, "c/middle"), middle);
+        FileUtils.write(FileUtils.createPath(input, "d/head"), head);
+        FileUtils.write(FileUtils.createPath(input, "a/small"), "small".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "c/small"), "small".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "d/other"), "other".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "unique"), "unique size".getBytes());
+
+        final Map<Path, String> hashes = HashProducer.path(input).hash(Hash.SHA256).toMap();
+        final List<DuplicateGroup> groups = HashProducer.path(input).hash(Hash.SHA256).duplicates();
+
+        assertThat(groups).hasSize(2);
+        assertThat(groups.get(0).paths()).containsExactly(input.resolve("a/large"), input.resolve("b/large copy"));
+        assertThat(groups.get(0).size()).isEqualTo(large.length);
+        assertThat(groups.get(0).wastedBytes()).isEqualTo(large.length);
+        assertThat(groups.get(0).hash()).isEqualTo(hashes.get(input.resolve("a/large")));
+        assertThat(groups.get(1).paths()).containsExactly(input.resolve("a/small"), input.resolve("c/small"));
+        assertThat(groups.get(1).hash()).isEqualTo(hashes.get(input.resolve("a/small")));
+
+        final List<DuplicateGroup> parallel = HashProducer.path(input).hash(Hash.SHA256).parallelism(4).duplicates();
+        assertThat(parallel).hasSize(2);
+        assertThat(parallel.get(0).paths()).isEqualTo(groups.get(0).paths());
+        assertThat(parallel.get(1).paths()).isEqualTo(groups.get(1).paths());
+    }
+
+    @Test
+    public void testShouldNotReportCollidingDigestsOfShortHashesAsDuplicates() throws IOException {
+        final Path input = TMP_ROOT.resolve("input");
+        FileUtils.write(FileUtils.createPath(input, "a/first"), "first".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "b/first"), "first".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "c/other"), "other".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "a/empty"), new byte[0]);
+        FileUtils.write(FileUtils.createPath(input, "b/empty"), new byte[0]);
+
+        final List<DuplicateGroup> groups = HashProducer.path(input).hash(new ConstantDigest()).parallelism(2).duplicates();
+
+        assertThat(groups).hasSize(1);
+        assertThat(groups.get(0).paths()).containsExactly(input.resolve("a/first"), input.resolve("b/first"));
+    }
+
+    @Test
+    public void testShouldResumeInterruptedRunFromCheckpoint() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path expected = TMP_ROOT.resolve("expected.txt");
+        final Path output = TMP_ROOT.resolve("output.txt");
+        final Path checkpoint = TMP_ROOT.resolve("output.checkpoint");
+
+        HashProducer.path(input).hash(Hash.SHA256).toFile(expected);
+
+        assertThatThrownBy(() -> HashProducer.path(input).hash(new CrashingDigest(100))
+                .checkpoint(checkpoint, Duration.ofNanos(1))
+                .toFile(output))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("crash");
+        assertThat(checkpoint).exists();
+
+        final AtomicInteger filesHashed = new AtomicInteger();
+        HashProducer.path(input).hash(Hash.SHA256)
+                .checkpoint(checkpoint, Duration.ofMillis(1))
+                .metrics(new MetricsListener() {
+                    @Override
+                    public void fileHashed(final Path file, final long bytes, final long nanos) {
+                        filesHashed.incrementAndGet();
+                    }
+                })
+                .toFile(output);
+
+        assertThat(Files.readAllBytes(output)).isEqualTo(Files.readAllBytes(expected));
+        assertThat(filesHashed.get()).isPositive().isLessThan(128);
+        assertThat(checkpoint).doesNotExist();
+    }
+
+    @Test
+    public void testShouldStartFromBeginningIfCheckpointIsCorrupt() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path expected = TMP_ROOT.resolve("expected.txt");
+        final Path output = TMP_ROOT.resolve("output.txt");
+        final Path checkpoint = TMP_ROOT.resolve("output.checkpoint");
+
+        HashProducer.path(input).hash(Hash.SHA256).toFile(expected);
+
+        assertThatThrownBy(() -> HashProducer.path(input).hash(new CrashingDigest(100))
+                .checkpoint(checkpoint, Duration.ofNanos(1))
+                .toFile(output))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("crash");
+        final byte[] bytes = Files.readAllBytes(checkpoint);
+        Files.write(checkpoint, Arrays.copyOf(bytes, bytes.length - 1));
+
+        final AtomicInteger filesHashed = new AtomicInteger();
+        HashProducer.path(input).hash(Hash.SHA256)
+                .checkpoint(checkpoint, Duration.ofMillis(1))
+                .metrics(new MetricsListener() {
+                    @Override
+                    public void fileHashed(final Path file, final long bytes, final long nanos) {
+                        filesHashed.incrementAndGet();
+                    }
+                })
+                .toFile(output);
+
+        assertThat(Files.readAllBytes(output)).isEqualTo(Files.readAllBytes(expected));
+        assertThat(filesHashed.get()).isEqualTo(128);
+        assertThat(checkpoint).doesNotExist();
+    }
+
+    @Test
+    public void testShouldHashOnlyIncludedFilesAndSkipExcludedSubtrees() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path expected = createTree(TMP_ROOT.resolve("expected"));
+        FileUtils.write(FileUtils.createPath(input, ".git/objects/ab/cdef"), "object".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "dir0/target/classes/Main.class"), "class".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "dir1/sub0/file0.tmp"), "temp".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "dir2/.hidden"), "hidden".getBytes());
+        FileUtils.write(FileUtils.createPath(input, "dir3/huge"), new byte[200 * 1024]);
+
+        final List<Path> tested = new ArrayList<>();
+        final Map<Path, String> hashes = HashProducer.path(input)
+                .exclude("glob:{target,**/target}")
+                .exclude("regex:.*\\.tmp")
+                .skipHidden(true)
+                .sizeRange(0, 127 * 1024)
+                .filter((path, attrs) -> tested.add(path))
+                .toMap();
+
+        final Map<Path, String> expectedHashes = HashProducer.path(expected).toMap();
+        assertThat(hashes).hasSize(expectedHashes.size());
+        assertThat(hashes.get(input)).isEqualTo(expectedHashes.get(expected));
+        assertThat(tested).noneMatch(path -> path.startsWith(input.resolve(".git")) || path.startsWith(input.resolve("dir0/target")));
+
+        final Map<Path, String> included = HashProducer.path(input)
+                .include("glob:dir0/**")
+                .modifiedBetween(FileTime.fromMillis(0), FileTime.fromMillis(Long.MAX_VALUE))
+                .exclude("glob:dir0/target")
+                .toMap();
+        assertThat(included.keySet()).allMatch(path -> path.startsWith(input.resolve("dir0")) || path.equals(input));
+        assertThat(included.get(input.resolve("dir0"))).isEqualTo(expectedHashes.get(expected.resolve("dir0")));
+        assertThat(HashProducer.path(input).modifiedBetween(FileTime.fromMillis(0), FileTime.fromMillis(1)).toMap()).isEmpty();
+        assertThatThrownBy(() -> HashProducer.path(input).modifiedBetween(FileTime.fromMillis(1), FileTime.fromMillis(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        final PathFilter filter = new PathFilter(input);
+        filter.skipHidden(false);
+        assertThat(filter.isEmpty()).isTrue();
+        filter.skipHidden(true);
+        assertThat(filter.isEmpty()).isFalse();
+    }
+
+    @Test
+    public void testShouldKeepHashesUpToDateWhileWatching() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final BlockingQueue<TreeChange> changes = new LinkedBlockingQueue<>();
+
+        try (final HashWatcher watcher = HashProducer.path(input).parallelism(2).watchDebounce(Duration.ofMillis(200))
+                .watch(changes::add)) {
+            assertThat(watcher.root().hash()).isEqualTo(HashProducer.path(input).toMap().get(input));
+
+            final Path file = input.resolve("dir0/sub0/file0");
+            for (int i = 0; i < 20; i++) {
+                FileUtils.write(file, ("burst" + i).getBytes());
+            }
+            final List<TreeChange> burst = awaitRoot(changes, input);
+            assertThat(burst).hasSize(1);
+            assertThat(burst.get(0).isFullRescan()).isFalse();
+            assertThat(burst.get(0).changed()).extracting(HashEntry::path)
+                    .containsExactly(input, input.resolve("dir0"), input.resolve("dir0/sub0"), file);
+            assertThat(burst.get(0).removed()).isEmpty();
+
+            FileUtils.write(FileUtils.createPath(input, "dir9/sub0/new"), "new".getBytes());
+            FileUtils.write(FileUtils.createPath(input, "dir9/empty/.keep"), new byte[0]);
+            assertThat(awaitRoot(changes, input)).flatExtracting(TreeChange::changed).extracting(HashEntry::path)
+                    .contains(input.resolve("dir9/sub0/new"), input.resolve("dir9"));
+            assertThat(watcher.root().hash()).isEqualTo(HashProducer.path(input).toMap().get(input));
+
+            FileUtils.delete(input.resolve("dir1"));
+            assertThat(awaitRoot(changes, input)).flatExtracting(TreeChange::removed)
+                    .contains(input.resolve("dir1"), input.resolve("dir1/sub2/file14"));
+        }
+    }
+
+    @Test(timeOut = 30_000)
+    public void testShouldKeepWatchingAfterListenerFailure() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final BlockingQueue<TreeChange> changes = new LinkedBlockingQueue<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        try (final HashWatcher watcher = HashProducer.path(input).watchDebounce(Duration.ofMillis(50)).watch(change -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("failed listener");
+            }
+            changes.add(change);
+        })) {
+            FileUtils.write(input.resolve("dir0/sub0/file0"), "first".getBytes());
+            while (calls.get() == 0) {
+                Thread.sleep(10);
+            }
+
+            FileUtils.write(FileUtils.createPath(input, "dir2-copy/file"), "copy".getBytes());
+            FileUtils.delete(input.resolve("dir2"));
+            assertThat(awaitRoot(changes, input)).flatExtracting(TreeChange::removed)
+                    .contains(input.resolve("dir2"), input.resolve("dir2/sub0/file0"))
+                    .doesNotContain(input.resolve("dir2-copy"), input.resolve("dir2-copy/file"));
+            assertThat(watcher.root().hash()).isEqualTo(HashProducer.path(input).toMap().get(input));
+        }
+    }
+
+    @Test
+    public void testShouldWriteLinesInWalkOrder() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        FileUtils.write(FileUtils.createPath(input, "dir0/file with spaces"), "spaces".getBytes());
+        final Path output = TMP_ROOT.resolve("output.txt");
+
+        final StringBuilder expected = new StringBuilder();
+        HashProducer.path(input).consumeHashes(entry -> expected.append(entry.path()).append(": ").append(entry.hash()).append("\n"));
+
+        HashProducer.path(input).toFile(output);
+
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)).isEqualTo(expected.toString());
+    }
+
+    @Test(timeOut = 10_000)
+    public void testShouldNotBlockProducersAfterUncheckedFailureOfWriter() throws IOException {
+        final Path output = TMP_ROOT.resolve("output.txt");
+        final HashEntry entry = new HashEntry(TMP_ROOT.resolve("file"), new byte[32], null);
+
+        final HashFileWriter writer = HashFileWriter.open(output);
+        writer.mark(offset -> {
+            throw new IllegalStateException("crash");
+        });
+
+        assertThatThrownBy(() -> {
+            while (true) {
+                writer.accept(entry);
+            }
+        }).isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(writer::close).isInstanceOf(IOException.class)
+                .hasRootCauseInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Takes changes published by a watcher, until the hash of the input matches the one of a fresh walk
+     */
+    private static List<TreeChange> awaitRoot(final BlockingQueue<TreeChange> changes, final Path input) throws InterruptedException {
+        final List<TreeChange> taken = new ArrayList<>();
+        final String expected = HashProducer.path(input).toMap().get(input);
+        while (taken.isEmpty() || !taken.get(taken.size() - 1).root().hash().equals(expected)) {
+            final TreeChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertThat(change).as("change of [%s]", input).isNotNull();
+            taken.add(change);
+        }
+
+        return taken;
+    }
+
+    /**
+     * Takes the first entry of a stream, whose walk is then blocked on the full queue, and drops the stream unclosed
+     */
+    private static void takeFirstAndAbandon(final Path input) {
+        final HashEntry entry = new HashEntry(input, new byte[32], null);
+        final HashEntrySpliterator spliterator = new HashEntrySpliterator(consumer -> {
+            for (int i = 0; i < 1000; i++) {
+                consumer.accept(entry);
+            }
+        }, 1);
+
+        assertThat(StreamSupport.stream(spliterator, false).iterator().next()).isSameAs(entry);
+    }
+
+    /**
+     * Moves modification times of all files an hour back, so that their hashes can be cached
+     */
+    private static Path backdate(final Path root) throws IOException {
+        final FileTime modifiedTime = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        try (final Stream<Path> paths = Files.walk(root)) {
+            for (final Path path : (Iterable<Path>) paths::iterator) {
+                Files.setLastModifiedTime(path, modifiedTime);
+            }
+        }
+
+        return root;
+    }
+
+    private static Path createTree(final Path root) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 16; j++) {
+                final byte[] bytes = new byte[(i * 16 + j) * 1024];
+                for (int k = 0; k < bytes.length; k++) {
+                    bytes[k] = (byte) (k * 31 + i + j);
+                }
+                FileUtils.write(FileUtils.createPath(root, "dir" + i + "/sub" + (j % 3) + "/file" + j), bytes);
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * SHA-256, which fails after the specified number of digests, i.e. simulates a crash in the middle of a walk
+     */
+    private static final class CrashingDigest extends MessageDigest implements Cloneable {
+
+        private final AtomicInteger remaining;
+        private MessageDigest delegate;
+
+        private CrashingDigest(final int digests) throws Exception {
+            this(new AtomicInteger(digests), MessageDigest.getInstance("SHA-256"));
+        }
+
+        private CrashingDigest(final AtomicInteger remaining, final MessageDigest delegate) {
+            super("SHA-256");
+            this.remaining = remaining;
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            delegate.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            delegate.update(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            if (remaining.decrementAndGet() < 0) {
+                throw new IllegalStateException("crash");
+            }
+
+            return delegate.digest();
+        }
+
+        @Override
+        protected void engineReset() {
+            delegate.reset();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            final CrashingDigest copy = (CrashingDigest) super.clone();
+            copy.delegate = (MessageDigest) delegate.clone();
+
+            return copy;
+        }
+    }
+
+    /**
+     * Digest, for which every input collides, or which fails on every update
+     */
+    private static final class ConstantDigest extends MessageDigest implements Cloneable {
+
+        private final Throwable failure;
+
+        private ConstantDigest() {
+            this(null);
+        }
+
+        private ConstantDigest(final Throwable failure) {
+            super("CONSTANT");
+            this.failure = failure;
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected void engineUpdate(final byte input) {
+            engineUpdate(new byte[]{input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(final byte[] input, final int offset, final int len) {
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return new byte[4];
+        }
+
+        @Override
+        protected void engineReset() {
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            return super.clone();
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.github.welandaz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for a network file system. Delegates to the default file system, but sleeps on every open,
+ * listing and attribute read, and records how many files were opened at the same time
+ */
+final class LatencyFileSystem extends FileSystem {
+
+    private final FileSystem delegate;
+    private final Provider provider;
+    private final long latencyMillis;
+    private final AtomicInteger opening = new AtomicInteger();
+    private final AtomicInteger peakOpening = new AtomicInteger();
+
+    LatencyFileSystem(final FileSystem delegate, final long latencyMillis) {
+        this.delegate = delegate;
+        this.provider = new Provider(delegate.provider());
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return - path of this file system, which points to the same file as the specified path
+     */
+    Path wrap(final Path path) {
+        return path == null ? null : new LatencyPath(path);
+    }
+
+    /**
+     * @return - maximal number of files, which were being opened at the same time
+     */
+    int peakOpening() {
+        return peakOpening.get();
+    }
+
+    @Override
+    public FileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return delegate.isReadOnly();
+    }
+
+    @Override
+    public String getSeparator() {
+        return delegate.getSeparator();
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return delegate.getFileStores();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return delegate.supportedFileAttributeViews();
+    }
+
+    @Override
+    public Path getPath(final String first, final String... more) {
+        return wrap(delegate.getPath(first, more));
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(final String syntaxAndPattern) {
+        final PathMatcher matcher = delegate.getPathMatcher(syntaxAndPattern);
+
+        return path -> matcher.matches(unwrap(path));
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        return delegate.getUserPrincipalLookupService();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void sleep() throws IOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static Path unwrap(final Path path) {
+        return path instanceof LatencyPath ? ((LatencyPath) path).delegate : path;
+    }
+
+    private final class Provider extends FileSystemProvider {
+
+        private final FileSystemProvider delegate;
+
+        private Provider(final FileSystemProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getScheme() {
+            return "latency";
+        }
+
+        @Override
+        public FileSystem newFileSystem(final URI uri, final Map<String, ?> env) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileSystem getFileSystem(final URI uri) {
+            return LatencyFileSystem.this;
+        }
+
+        @Override
+        public Path getPath(final URI uri) {
+            return wrap(delegate.getPath(uri));
+        }
+
+        @Override
+        public FileChannel newFileChannel(final Path path, final Set<? extends OpenOption> options,
+                                          final FileAttribute<?>... attrs) throws IOException {
+            peakOpening.accumulateAndGet(opening.incrementAndGet(), Math::max);
+            try {
+                sleep();
+
+                return delegate.newFileChannel(unwrap(path), options, attrs);
+            } finally {
+                opening.decrementAndGet();
+            }
+        }
+
+        @Override
+        public SeekableByteChannel newByteChannel(final Path path, final Set<? extends OpenOption> options,
+                                                  final FileAttribute<?>... attrs) throws IOException {
+            return newFileChannel(path, options, attrs);
+        }
+
+        @Override
+        public DirectoryStream<Path> newDirectoryStream(final Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+            sleep();
+            final DirectoryStream<Path> stream = delegate.newDirectoryStream(unwrap(dir), path -> filter.accept(wrap(path)));
+
+            return new DirectoryStream<Path>() {
+                @Override
+                public Iterator<Path> iterator() {
+                    final Iterator<Path> iterator = stream.iterator();
+
+                    return new Iterator<Path>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Path next() {
+                            return wrap(iterator.next());
+                        }
+                    };
+                }
+
+                @Override
+                public void close() throws IOException {
+                    stream.close();
+                }
+            };
+        }
+
+        @Override
+        public void createDirectory(final Path dir, final FileAttribute<?>... attrs) throws IOException {
+            delegate.createDirectory(unwrap(dir), attrs);
+        }
+
+        @Override
+        public void delete(final Path path) throws IOException {
+            delegate.delete(unwrap(path));
+        }
+
+        @Override
+        public void copy(final Path source, final Path target, final CopyOption... options) throws IOException {
+            delegate.copy(unwrap(source), unwrap(target), options);
+        }
+
+        @Override
+        public void move(final Path source, final Path target, final CopyOption... options) throws IOException {
+            delegate.move(unwrap(source), unwrap(target), options);
+        }
+
+        @Override
+        public boolean isSameFile(final Path path, final Path path2) throws IOException {
+            return delegate.isSameFile(unwrap(path), unwrap(path2));
+        }
+
+        @Override
+        public boolean isHidden(final Path path) throws IOException {
+            return delegate.isHidden(unwrap(path));
+        }
+
+        @Override
+        public FileStore getFileStore(final Path path) throws IOException {
+            return delegate.getFileStore(unwrap(path));
+        }
+
+        @Override
+        public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
+            delegate.checkAccess(unwrap(path), modes);
+        }
+
+        @Override
+        public <V extends FileAttributeView> V getFileAttributeView(final Path path, final Class<V> type, final LinkOption... options) {
+            return delegate.getFileAttributeView(unwrap(path), type, options);
+        }
+
+        @Override
+        public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> type,
+                                                                final LinkOption... options) throws IOException {
+            sleep();
+
+            return delegate.readAttributes(unwrap(path), type, options);
+        }
+
+        @Override
+        public Map<String, Object> readAttributes(final Path path, final String attributes,
+                                                  final LinkOption... options) throws IOException {
+            sleep();
+
+            return delegate.readAttributes(unwrap(path), attributes, options);
+        }
+
+        @Override
+        public void setAttribute(final Path path, final String attribute, final Object value,
+                                 final LinkOption... options) throws IOException {
+            delegate.setAttribute(unwrap(path), attribute, value, options);
+        }
+    }
+
+    private final class LatencyPath implements Path {
+
+        private final Path delegate;
+
+        private LatencyPath(final Path delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public FileSystem getFileSystem() {
+            return LatencyFileSystem.this;
+        }
+
+        @Override
+        public boolean isAbsolute() {
+            return delegate.isAbsolute();
+        }
+
+        @Override
+        public Path getRoot() {
+            return wrap(delegate.getRoot());
+        }
+
+        @Override
+        public Path getFileName() {
+            return wrap(delegate.getFileName());
+        }
+
+        @Override
+        public Path getParent() {
+            return wrap(delegate.getParent());
+        }
+
+        @Override
+        public int getNameCount() {
+            return delegate.getNameCount();
+        }
+
+        @Override
+        public Path getName(final int index) {
+            return wrap(delegate.getName(index));
+        }
+
+        @Override
+        public Path subpath(final int beginIndex, final int endIndex) {
+            return wrap(delegate.subpath(beginIndex, endIndex));
+        }
+
+        @Override
+        public boolean startsWith(final Path other) {
+            return delegate.startsWith(unwrap(other));
+        }
+
+        @Override
+        public boolean startsWith(final String other) {
+            return delegate.startsWith(other);
+        }
+
+        @Override
+        public boolean endsWith(final Path other) {
+            return delegate.endsWith(unwrap(other));
+        }
+
+        @Override
+        public boolean endsWith(final String other) {
+            return delegate.endsWith(other);
+        }
+
+        @Override
+        public Path normalize() {
+            return wrap(delegate.normalize());
+        }
+
+        @Override
+        public Path resolve(final Path other) {
+            return wrap(delegate.resolve(unwrap(other)));
+        }
+
+        @Override
+        public Path resolve(final String other) {
+            return wrap(delegate.resolve(other));
+        }
+
+        @Override
+        public Path resolveSibling(final Path other) {
+            return wrap(delegate.resolveSibling(unwrap(other)));
+        }
+
+        @Override
+        public Path resolveSibling(final String other) {
+            return wrap(delegate.resolveSibling(other));
+        }
+
+        @Override
+        public Path relativize(final Path other) {
+            return wrap(delegate.relativize(unwrap(other)));
+        }
+
+        @Override
+        public URI toUri() {
+            return delegate.toUri();
+        }
+
+        @Override
+        public Path toAbsolutePath() {
+            return wrap(delegate.toAbsolutePath());
+        }
+
+        @Override
+        public Path toRealPath(final LinkOption... options) throws IOException {
+            return wrap(delegate.toRealPath(options));
+        }
+
+        @Override
+        public java.io.File toFile() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>[] events,
+                                 final WatchEvent.Modifier... modifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>... events) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<Path> iterator() {
+            final Iterator<Path> iterator = delegate.iterator();
+
+            return new Iterator<Path>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Path next() {
+                    return wrap(iterator.next());
+                }
+            };
+        }
+
+        @Override
+        public int compareTo(final Path other) {
+            return delegate.compareTo(unwrap(other));
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof LatencyPath && delegate.equals(((LatencyPath) other).delegate);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+}
@@ -0,0 +1,319 @@
+package com.github.welandaz;
+
+import com.github.welandaz.utils.FileUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ManifestTest {
+
+    private static final Path TMP_ROOT = Paths.get("/tmp").resolve("test-manifest");
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        FileUtils.delete(TMP_ROOT);
+        FileUtils.ensureDirectory(TMP_ROOT);
+    }
+
+    @Test
+    public void testShouldLookUpEveryHashedPath() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path output = TMP_ROOT.resolve("manifest.bin");
+
+        final Map<Path, String> hashes = HashProducer.path(input).hash(Hash.SHA256).toMap();
+        HashProducer.path(input).hash(Hash.SHA256).parallelism(2).toManifest(output);
+
+        try (final Manifest manifest = Manifest.open(output)) {
+            assertThat(manifest.size()).isEqualTo(hashes.size());
+            assertThat(manifest.algorithm()).isEqualTo("SHA-256");
+            assertThat(manifest.directoryScheme()).isEqualTo(DirectoryScheme.HEX_V1);
+
+            hashes.forEach((path, hash) -> {
+                final String key = input.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+                final ManifestEntry entry = manifest.get(key);
+
+                assertThat(entry).as(key).isNotNull();
+                assertThat(entry.path()).isEqualTo(key);
+                assertThat(entry.hash()).isEqualTo(hash);
+                assertThat(entry.isDirectory()).isEqualTo(Files.isDirectory(path));
+            });
+
+            assertThat(manifest.get("dir0/sub0/missing")).isNull();
+            assertThat(manifest.get("zzz")).isNull();
+
+            final List<String> paths = new ArrayList<>();
+            manifest.forEach(entry -> paths.add(entry.path()));
+            assertThat(paths).hasSize(hashes.size()).isSorted();
+        }
+    }
+
+    @Test
+    public void testShouldWriteSameManifestFromSpilledRuns() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path expected = TMP_ROOT.resolve("expected.bin");
+        final Path output = TMP_ROOT.resolve("manifest.bin");
+
+        HashProducer.path(input).toManifest(expected);
+        try (final ManifestWriter writer = new ManifestWriter(input, "SHA-512", DirectoryScheme.HEX_V1, 7)) {
+            HashProducer.path(input).consumeHashes(writer);
+            writer.write(output);
+        }
+
+        assertThat(Files.readAllBytes(output)).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    @Test
+    public void testShouldDiffManifests() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path before = TMP_ROOT.resolve("before.bin");
+        final Path after = TMP_ROOT.resolve("after.bin");
+
+        HashProducer.path(input).toManifest(before);
+
+        FileUtils.write(input.resolve("dir1/sub0/file3"), "modified".getBytes());
+        Files.delete(input.resolve("dir2/sub2/file5"));
+        FileUtils.write(FileUtils.createPath(input, "dir9/added"), "added".getBytes());
+
+        HashProducer.path(input).toManifest(after);
+
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        final List<String> modified = new ArrayList<>();
+        try (final Manifest first = Manifest.open(before); final Manifest second = Manifest.open(after)) {
+            Manifest.diff(first, second, new DiffListener() {
+                @Override
+                public void added(final ManifestEntry entry) {
+                    added.add(entry.path());
+                }
+
+                @Override
+                public void removed(final ManifestEntry entry) {
+                    removed.add(entry.path());
+                }
+
+                @Override
+                public void modified(final ManifestEntry beforeEntry, final ManifestEntry afterEntry) {
+                    modified.add(afterEntry.path());
+                }
+            });
+        }
+
+        assertThat(added).containsExactly("dir9", "dir9/added");
+        assertThat(removed).containsExactly("dir2/sub2/file5");
+        assertThat(modified).containsExactly("", "dir1", "dir1/sub0", "dir1/sub0/file3", "dir2", "dir2/sub2");
+    }
+
+    @Test
+    public void testShouldDiffLiveTreeAgainstManifest() throws IOException {
+        final Path input = backdate(createTree(TMP_ROOT.resolve("input")));
+        final Path before = TMP_ROOT.resolve("before.bin");
+
+        HashProducer.path(input).toManifest(before);
+
+        FileUtils.write(input.resolve("dir1/sub0/file3"), "modified".getBytes());
+        Files.delete(input.resolve("dir2/sub2/file5"));
+        FileUtils.delete(input.resolve("dir3"));
+        FileUtils.write(FileUtils.createPath(input, "dir9/added"), "added".getBytes());
+
+        // same size, modification time and file key, so the hash from the manifest is reused
+        final Path untouched = input.resolve("dir4/sub0/file0");
+        final FileTime modifiedTime = Files.getLastModifiedTime(untouched);
+        FileUtils.write(untouched, "CONTENT40".getBytes());
+        Files.setLastModifiedTime(untouched, modifiedTime);
+
+        final Changes changes = new Changes();
+        try (final Manifest manifest = Manifest.open(before)) {
+            HashProducer.path(input).parallelism(2).diff(manifest, changes);
+        }
+
+        assertThat(changes.added).containsExactly("dir9/added", "dir9");
+        assertThat(changes.removed).hasSize(21).contains("dir2/sub2/file5", "dir3", "dir3/sub1", "dir3/sub2/file14");
+        assertThat(changes.modified)
+                .containsExactlyInAnyOrder("", "dir1", "dir1/sub0", "dir1/sub0/file3", "dir2", "dir2/sub2");
+    }
+
+    @Test
+    public void testShouldNotReuseHashesOfFilesModifiedJustBeforeManifestWasWritten() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path before = TMP_ROOT.resolve("before.bin");
+
+        HashProducer.path(input).toManifest(before);
+
+        // a change within the same tick of the file system clock leaves size and modification time unchanged
+        final Path racy = input.resolve("dir4/sub0/file0");
+        final FileTime modifiedTime = Files.getLastModifiedTime(racy);
+        FileUtils.write(racy, "CONTENT40".getBytes());
+        Files.setLastModifiedTime(racy, modifiedTime);
+
+        final Changes changes = new Changes();
+        try (final Manifest manifest = Manifest.open(before)) {
+            HashProducer.path(input).diff(manifest, changes);
+        }
+
+        assertThat(changes.modified).containsExactly("dir4/sub0/file0", "dir4/sub0", "dir4", "");
+    }
+
+    @Test
+    public void testShouldPruneDirectoriesWithUnchangedMetadata() throws IOException {
+        final Path input = backdate(createTree(TMP_ROOT.resolve("input")));
+        final Path before = TMP_ROOT.resolve("before.bin");
+
+        HashProducer.path(input).toManifest(before);
+
+        FileUtils.write(input.resolve("dir5/sub0/file0"), "modified in place".getBytes());
+
+        try (final Manifest manifest = Manifest.open(before)) {
+            final Changes pruned = new Changes();
+            HashProducer.path(input).diff(manifest, pruned, true);
+
+            assertThat(pruned.modified).isEmpty();
+
+            final Changes full = new Changes();
+            HashProducer.path(input).diff(manifest, full);
+
+            assertThat(full.modified).containsExactly("dir5/sub0/file0", "dir5/sub0", "dir5", "");
+
+            final FileTime now = FileTime.fromMillis(System.currentTimeMillis() + 10_000);
+            for (final String dir : new String[]{"dir5/sub0", "dir5", ""}) {
+                Files.setLastModifiedTime(input.resolve(dir), now);
+            }
+
+            final Changes touched = new Changes();
+            HashProducer.path(input).diff(manifest, touched, true);
+
+            assertThat(touched.modified).isEqualTo(full.modified);
+        }
+    }
+
+    @Test
+    public void testShouldRejectManifestOfAnotherAlgorithm() throws IOException {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        final Path before = TMP_ROOT.resolve("before.bin");
+
+        HashProducer.path(input).toManifest(before);
+
+        try (final Manifest manifest = Manifest.open(before)) {
+            assertThatThrownBy(() -> HashProducer.path(input).hash(Hash.SHA256).diff(manifest, new Changes()))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void testShouldMergeShardsHashedInSeparateProcesses() throws Exception {
+        final Path input = createTree(TMP_ROOT.resolve("input"));
+        FileUtils.write(FileUtils.createPath(input, "top-level file"), "top".getBytes());
+        final Path single = TMP_ROOT.resolve("single.bin");
+        final Path merged = TMP_ROOT.resolve("merged.bin");
+        final int shardCount = 3;
+
+        HashProducer.path(input).hash(Hash.SHA256).toManifest(single);
+
+        final String classPath = Paths.get(HashProducer.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                + File.pathSeparator
+                + Paths.get(ShardProcess.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final List<Process> processes = new ArrayList<>();
+        final List<Path> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            final Path shard = TMP_ROOT.resolve("shard" + i + ".bin");
+            shards.add(shard);
+            processes.add(new ProcessBuilder(java, "-cp", classPath, ShardProcess.class.getName(),
+                    input.toString(), String.valueOf(i), String.valueOf(shardCount), shard.toString())
+                    .inheritIO()
+                    .start());
+        }
+        for (final Process process : processes) {
+            assertThat(process.waitFor()).isZero();
+        }
+
+        long entries = 0;
+        for (final Path shard : shards) {
+            try (final Manifest manifest = Manifest.open(shard)) {
+                assertThat(manifest.get("")).isNull();
+                assertThat(manifest.size()).isPositive();
+                entries += manifest.size();
+            }
+        }
+
+        HashProducer.path(input).hash(Hash.SHA256).mergeShards(shards, merged);
+
+        try (final Manifest manifest = Manifest.open(single)) {
+            assertThat(entries).isEqualTo(manifest.size() - 1);
+        }
+        assertThat(Files.readAllBytes(merged)).isEqualTo(Files.readAllBytes(single));
+        assertThatThrownBy(() -> HashProducer.path(input).mergeShards(shards, merged))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> HashProducer.path(input).hash(Hash.SHA256).mergeShards(Arrays.asList(single, shards.get(0)), merged))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Duplicate entry");
+    }
+
+    @Test
+    public void testShouldRejectFileWhichIsNotManifest() throws IOException {
+        final Path file = TMP_ROOT.resolve("file.txt");
+        FileUtils.write(file, "definitely not a manifest, but long enough to contain a footer".getBytes());
+
+        assertThatThrownBy(() -> Manifest.open(file))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("is not a manifest");
+    }
+
+    private static final class Changes implements DiffListener {
+
+        private final List<String> added = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private final List<String> modified = new ArrayList<>();
+
+        @Override
+        public void added(final ManifestEntry entry) {
+            added.add(entry.path());
+        }
+
+        @Override
+        public void removed(final ManifestEntry entry) {
+            removed.add(entry.path());
+        }
+
+        @Override
+        public void modified(final ManifestEntry before, final ManifestEntry after) {
+            modified.add(after.path());
+        }
+    }
+
+    private static Path backdate(final Path root) throws IOException {
+        final FileTime modifiedTime = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        try (final Stream<Path> paths = Files.walk(root)) {
+            for (final Path path : (Iterable<Path>) paths::iterator) {
+                Files.setLastModifiedTime(path, modifiedTime);
+            }
+        }
+
+        return root;
+    }
+
+    private static Path createTree(final Path root) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 16; j++) {
+                FileUtils.write(FileUtils.createPath(root, "dir" + i + "/sub" + (j % 3) + "/file" + j), ("content" + i + j).getBytes());
+            }
+        }
+
+        return root;
+    }
+
+}
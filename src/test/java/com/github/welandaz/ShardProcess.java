@@ -0,0 +1,23 @@
+package com.github.welandaz;
+
+import java.nio.file.Paths;
+
+/**
+ * Entry point of a separate JVM, which writes the manifest of a single shard
+ */
+public final class ShardProcess {
+
+    private ShardProcess() {
+    }
+
+    /**
+     * @param args - input, shard index, shard count and output manifest
+     */
+    public static void main(final String[] args) {
+        HashProducer.path(Paths.get(args[0]))
+                .hash(Hash.SHA256)
+                .shard(Integer.parseInt(args[1]), Integer.parseInt(args[2]))
+                .toManifest(Paths.get(args[3]));
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.github.welandaz.digest;
+
+import com.github.welandaz.utils.StringUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestTest {
+
+    @DataProvider
+    public Object[][] vectors() {
+        return new Object[][]{
+                {0, "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262", "ef46db3751d8e999", "00000000"},
+                {1, "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213", "e934a84adb052768", "527d5351"},
+                {3, "e1be4d7a8ab5560aa4199eea339849ba8e293d55ca0a81006726d184519e647f", "e5c7bb4533bc65dd", "92fd4bfa"},
+                {8, "2351207d04fc16ade43ccab08600939c7c1fa70a5c0aaca76063d04c3228eaeb", "884a173614b81b8d", "8a2cbc3b"},
+                {31, "bda80c7fe2db38be6387b35c870bd7728d67b7b6cc5eb9b0e5c7dcb21ea754c2", "c346d2b59b4d8ee1", "e95cabcb"},
+                {32, "e528e95798037df410543d9f31e396ecdd458d71b157d6014398bae32fb56c65", "cbf59c5116ff32b4", "46dd794e"},
+                {33, "4f4e6c1dffd3a6c9959876d15aa96b5fb0da8632b995f6ca2e30503f2829fa29", "0c535d1acafb8ead", "9f85a26d"},
+                {64, "4eed7141ea4a5cd4b788606bd23f46e212af9cacebacdc7d1f4c6dc7f2511b98", "f7c67301db6713f0", "fb6d36eb"},
+                {65, "de1e5fa0be70df6d2be8fffd0e99ceaa8eb6e8c93a63f2d8d1c30ecb6b263dee", "c31eb63b2ae4465b", "694420fa"},
+                {1023, "10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11", "d66738f081c25cf4", "39a4911a"},
+                {1024, "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7", "138e26c65048ce29", "2af62c0c"},
+                {1025, "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444", "cfd73aedd2d6a39d", "c8d03add"},
+                {2048, "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a", "a69e05a7eff57800", "9f7e33f0"},
+                {3073, "7124b49501012f81cc7f11ca069ec9226cecb8a2c850cfe644e327d22d3e1cd3", "9805379a726bf789", "5589c733"},
+                {8193, "bab6c09cb8ce8cf459261398d2e7aef35700bf488116ceb94a36d0f5f1b7bc3b", "755e4befd10cccf4", "e814309c"},
+                {100000, "d93c23eedaf165a7e0be908ba86f1a7a520d568d2d13cde787c8580c5c72cc54", "4cf75ee72cd8f4cc", "7247f66b"}
+        };
+    }
+
+    @Test(dataProvider = "vectors")
+    public void testShouldMatchReferenceVectors(final int length, final String blake3, final String xxh64, final String crc32c) throws Exception {
+        final byte[] input = input(length);
+
+        assertDigest(Blake3Digest::new, input, blake3);
+        assertDigest(Xxh64Digest::new, input, xxh64);
+        assertDigest(Crc32cDigest::new, input, crc32c);
+    }
+
+    private static void assertDigest(final Supplier<MessageDigest> digests, final byte[] input, final String expected) throws Exception {
+        final MessageDigest messageDigest = digests.get();
+
+        assertThat(StringUtils.toHexString(messageDigest.digest(input))).isEqualTo(expected);
+        assertThat(StringUtils.toHexString(messageDigest.digest(input))).as("digest after reset").isEqualTo(expected);
+
+        for (final int step : new int[]{1, 7, 64, 1000}) {
+            for (int i = 0; i < input.length; i += step) {
+                messageDigest.update(input, i, Math.min(step, input.length - i));
+            }
+            assertThat(StringUtils.toHexString(messageDigest.digest())).as("updates of %d bytes", step).isEqualTo(expected);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(input.length);
+        buffer.put(input).flip();
+        messageDigest.update(buffer);
+        assertThat(StringUtils.toHexString(messageDigest.digest())).as("direct buffer").isEqualTo(expected);
+
+        final int half = input.length / 2;
+        messageDigest.update(input, 0, half);
+        final MessageDigest copy = (MessageDigest) messageDigest.clone();
+        messageDigest.update(new byte[]{1, 2, 3});
+        copy.update(input, half, input.length - half);
+        assertThat(StringUtils.toHexString(copy.digest())).as("clone").isEqualTo(expected);
+    }
+
+    private static byte[] input(final int length) {
+        final byte[] input = new byte[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = (byte) (i % 251);
+        }
+
+        return input;
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.github.welandaz.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringUtilsTest {
+
+    @DataProvider
+    public Object[][] strings() {
+        return new Object[][]{
+                {""},
+                {"/tmp/test/dir0/file with spaces"},
+                {"/tmp/\u00e9t\u00e9/\u0444\u0430\u0439\u043b"},
+                {"/tmp/\u65e5\u672c\u8a9e/\ud83d\ude00"},
+                {"unpaired \ud83d and \ude00 surrogates\ud83d"}
+        };
+    }
+
+    @Test(dataProvider = "strings")
+    public void testShouldEncodeUtf8SameAsString(final String string) {
+        final byte[] expected = string.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(string.length() * 3 + 1);
+        buffer.put((byte) '>');
+        final ByteBuffer direct = ByteBuffer.allocateDirect(string.length() * 3);
+
+        StringUtils.putUtf8(buffer, string);
+        StringUtils.putUtf8(direct, string);
+
+        assertThat(Arrays.copyOfRange(buffer.array(), 1, buffer.position())).isEqualTo(expected);
+        final byte[] directBytes = new byte[direct.position()];
+        direct.flip();
+        direct.get(directBytes);
+        assertThat(directBytes).isEqualTo(expected);
+    }
+
+    @Test
+    public void testShouldEncodeHexSameAsString() {
+        final byte[] bytes = new byte[256];
+        new Random(42).nextBytes(bytes);
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length * 2);
+
+        StringUtils.putHex(buffer, bytes);
+
+        assertThat(new String(buffer.array(), StandardCharsets.US_ASCII)).isEqualTo(StringUtils.toHexString(bytes));
+    }
+
+}